@@ -0,0 +1,83 @@
+package com.jasonsavlov;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Saving and loading a synthetic corpus in the legacy serialized-tree format
+ * (JSBTree.serializeBTrees and generateTreesFromFile) and in the corpus file.
+ *
+ * Loading decodes every page's terms in both formats, into a tree of WordNodes
+ * for the legacy one and into dictionary IDs for the corpus file, which would
+ * otherwise only read its directory.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CorpusFileBenchmark
+{
+    @Param({"btree", "corpus"})
+    public String format;
+
+    @Param({"100", "1000"})
+    public int pageCount;
+
+    private List<WebPage> pages;
+    private File writeFile;
+    private File readFile;
+
+    @Setup(Level.Trial)
+    public void writeCorpus() throws IOException
+    {
+        pages = SyntheticCorpus.pages(pageCount);
+        writeFile = File.createTempFile("bench-write", ".csc365");
+        readFile = File.createTempFile("bench-read", ".csc365");
+        save(readFile);
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteFiles()
+    {
+        writeFile.delete();
+        readFile.delete();
+    }
+
+    private void save(File file) throws IOException
+    {
+        if (format.equals("btree")) {
+            JSBTree.serializeBTrees(pages, file);
+        } else {
+            CorpusFile.write(pages, file);
+        }
+    }
+
+    @Benchmark
+    public void save() throws IOException
+    {
+        save(writeFile);
+    }
+
+    @Benchmark
+    public long load() throws IOException
+    {
+        long terms = 0;
+        if (format.equals("btree")) {
+            for (Map.Entry<String, JSBTree> entry : JSBTree.generateTreesFromFile(readFile).entrySet()) {
+                terms += entry.getValue().size();
+            }
+        } else {
+            for (WebPage page : CorpusFile.read(readFile)) {
+                terms += page.readTermVector().size();
+            }
+        }
+        return terms;
+    }
+}
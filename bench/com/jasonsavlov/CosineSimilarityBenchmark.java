@@ -0,0 +1,62 @@
+package com.jasonsavlov;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scoring one query page against every page of a synthetic corpus, page by
+ * page through CosineSimilarityCalculation.call, and all at once through the
+ * inverted index's dot products.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CosineSimilarityBenchmark
+{
+    @Param({"1000", "10000"})
+    public int corpusSize;
+
+    private List<WebPage> pages;
+    private WebPage queryPage;
+    private CorpusIndex index;
+
+    @Setup(Level.Trial)
+    public void buildCorpus()
+    {
+        pages = SyntheticCorpus.pages(corpusSize);
+        queryPage = SyntheticCorpus.pages(1).get(0);
+
+        index = new CorpusIndex();
+        for (WebPage page : pages) {
+            index.addPage(page);
+        }
+        index.indexPendingPages();
+    }
+
+    @Benchmark
+    public double calculationPerPage() throws Exception
+    {
+        double best = 0.0;
+        for (WebPage page : pages) {
+            best = Math.max(best, new CosineSimilarityCalculation(page, queryPage).call().similarity);
+        }
+        return best;
+    }
+
+    @Benchmark
+    public double invertedIndex()
+    {
+        TermVector query = queryPage.getTermVector();
+        CorpusIndex.Matches matches = index.matches(query);
+        double best = 0.0;
+        for (int i = 0; i < matches.size(); i++) {
+            best = Math.max(best, matches.dots[i] / (matches.norms[i] * query.norm()));
+        }
+        return best;
+    }
+}
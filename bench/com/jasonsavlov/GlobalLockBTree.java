@@ -0,0 +1,161 @@
+package com.jasonsavlov;
+
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The original JSBTree insert and lookup paths: four children per node and
+ * a single lock taken on every recursive call. Kept only as a baseline for
+ * the benchmarks.
+ */
+final class GlobalLockBTree
+{
+    private static final int MAX_CHILDREN = 4;
+
+    private Node root = new Node(0);
+    private int height;
+
+    private final Lock mLock = new ReentrantLock();
+
+    private static final class Node
+    {
+        private int child_count;
+        private Entry[] children = new Entry[MAX_CHILDREN];
+
+        private Node(int k)
+        {
+            child_count = k;
+        }
+    }
+
+    private static final class Entry
+    {
+        private String key;
+        private WordNode value;
+        private Node next;
+
+        private Entry(String key, WordNode value, Node next)
+        {
+            this.key = key;
+            this.value = value;
+            this.next = next;
+        }
+    }
+
+    WordNode get(String key)
+    {
+        return search(root, key, height);
+    }
+
+    private WordNode search(Node x, String key, int ht)
+    {
+        try {
+            mLock.lock();
+            Entry[] children = x.children;
+            if (ht == 0) {
+                for (int i = 0; i < x.child_count; i++) {
+                    if (key.equals(children[i].key)) {
+                        return children[i].value;
+                    }
+                }
+            } else {
+                for (int i = 0; i < x.child_count; i++) {
+                    if ((i + 1) == x.child_count || key.compareTo(children[i + 1].key) < 0) {
+                        return search(children[i].next, key, ht - 1);
+                    }
+                }
+            }
+            return null;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    void add(String key)
+    {
+        try {
+            mLock.lock();
+            WordNode existing = get(key);
+            if (existing != null) {
+                existing.frequency++;
+                return;
+            }
+            put(key, new WordNode(key));
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    private void put(String key, WordNode value)
+    {
+        try {
+            mLock.lock();
+            Node u = insert(root, key, value, height);
+            if (u == null)
+                return;
+
+            Node t = new Node(2);
+            t.children[0] = new Entry(root.children[0].key, null, root);
+            t.children[1] = new Entry(u.children[0].key, null, u);
+            root = t;
+            height++;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    private Node insert(Node node, String key, WordNode value, int ht)
+    {
+        try {
+            mLock.lock();
+            int i;
+            Entry e = new Entry(key, value, null);
+
+            if (ht == 0) {
+                for (i = 0; i < node.child_count; i++) {
+                    if (key.compareTo(node.children[i].key) < 0)
+                        break;
+                }
+            } else {
+                for (i = 0; i < node.child_count; i++) {
+                    if (((i + 1) == node.child_count) || key.compareTo(node.children[i].key) < 0) {
+                        Node r = insert(node.children[i++].next, key, value, ht - 1);
+                        if (r == null) {
+                            return null;
+                        }
+                        e.key = r.children[0].key;
+                        e.next = r;
+                        break;
+                    }
+                }
+            }
+
+            for (int j = node.child_count; j > i; j--) {
+                node.children[j] = node.children[j - 1];
+            }
+            node.children[i] = e;
+            node.child_count++;
+            if (node.child_count < MAX_CHILDREN)
+                return null;
+            else
+                return split(node);
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    private Node split(Node n)
+    {
+        try {
+            mLock.lock();
+            Node t = new Node(MAX_CHILDREN / 2);
+            n.child_count = MAX_CHILDREN / 2;
+            for (int i = 0; i < MAX_CHILDREN / 2; i++) {
+                t.children[i] = n.children[MAX_CHILDREN / 2 + i];
+            }
+            return t;
+        } finally {
+            mLock.unlock();
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package com.jasonsavlov;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Mixed add/get throughput of the node-latched JSBTree against the original
+ * single-lock tree at 1, 4 and 16 threads.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class JSBTreeBenchmark
+{
+    private static final int VOCABULARY_SIZE = 50_000;
+
+    @Param({"legacy", "64", "128", "256"})
+    public String tree;
+
+    private String[] vocabulary;
+    private JSBTree latchedTree;
+    private GlobalLockBTree legacyTree;
+
+    @Setup(Level.Trial)
+    public void buildVocabulary()
+    {
+        Random rand = new Random(365);
+        vocabulary = new String[VOCABULARY_SIZE];
+        for (int i = 0; i < VOCABULARY_SIZE; i++) {
+            char[] word = new char[3 + rand.nextInt(8)];
+            for (int j = 0; j < word.length; j++) {
+                word[j] = (char) ('a' + rand.nextInt(26));
+            }
+            vocabulary[i] = new String(word);
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void freshTree()
+    {
+        if (tree.equals("legacy")) {
+            legacyTree = new GlobalLockBTree();
+            latchedTree = null;
+        } else {
+            latchedTree = new JSBTree(Integer.parseInt(tree));
+            legacyTree = null;
+        }
+    }
+
+    private Object addThenGet()
+    {
+        ThreadLocalRandom rand = ThreadLocalRandom.current();
+        String addKey = vocabulary[rand.nextInt(VOCABULARY_SIZE)];
+        String getKey = vocabulary[rand.nextInt(VOCABULARY_SIZE)];
+
+        if (latchedTree != null) {
+            latchedTree.add(addKey);
+            return latchedTree.get(getKey);
+        }
+        legacyTree.add(addKey);
+        return legacyTree.get(getKey);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Object oneThread()
+    {
+        return addThenGet();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Object fourThreads()
+    {
+        return addThenGet();
+    }
+
+    @Benchmark
+    @Threads(16)
+    public Object sixteenThreads()
+    {
+        return addThenGet();
+    }
+}
@@ -0,0 +1,88 @@
+package com.jasonsavlov;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JSBTree add, get and treeToList against trees of a page's vocabulary up to
+ * a large corpus's, with adds and gets at 1 and 4 threads.
+ *
+ * Adds draw from twice as many words as the tree starts with, so about half
+ * of them are increments and half insert a new key.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class JSBTreeSizeBenchmark
+{
+    @Param({"1000", "10000", "100000"})
+    public int treeSize;
+
+    private String[] words;
+    private JSBTree tree;
+
+    @Setup(Level.Trial)
+    public void buildWords()
+    {
+        words = SyntheticCorpus.vocabulary(treeSize * 2, SyntheticCorpus.SEED);
+    }
+
+    // Adds grow the tree, so every iteration starts again from the same treeSize keys
+    @Setup(Level.Iteration)
+    public void fillTree()
+    {
+        Random rand = new Random(SyntheticCorpus.SEED);
+        tree = new JSBTree();
+        for (int i = 0; i < treeSize; i++) {
+            tree.increment(words[i], 1 + rand.nextInt(20));
+        }
+    }
+
+    private String anyWord()
+    {
+        return words[ThreadLocalRandom.current().nextInt(words.length)];
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void addOneThread()
+    {
+        tree.add(anyWord());
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void addFourThreads()
+    {
+        tree.add(anyWord());
+    }
+
+    @Benchmark
+    @Threads(1)
+    public WordNode getOneThread()
+    {
+        return tree.get(anyWord());
+    }
+
+    @Benchmark
+    @Threads(4)
+    public WordNode getFourThreads()
+    {
+        return tree.get(anyWord());
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public List<WordNode> treeToList()
+    {
+        return tree.treeToList();
+    }
+}
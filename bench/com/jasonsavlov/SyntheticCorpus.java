@@ -0,0 +1,67 @@
+package com.jasonsavlov;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Deterministic stand-ins for crawled pages, so benchmarks measure the same
+ * data on every run and machine without touching the network.
+ *
+ * Words are drawn from a fixed vocabulary skewed towards its front, as real
+ * text is, and every page of a given size and seed comes out the same. The
+ * corpus is built in a trial-level setup, outside anything that is measured.
+ */
+final class SyntheticCorpus
+{
+    static final long SEED = 365L;
+    static final int VOCABULARY_SIZE = 50_000;
+
+    // Roughly the number of words in a Wikipedia article
+    static final int WORDS_PER_PAGE = 1500;
+
+    private SyntheticCorpus()
+    {
+    }
+
+    static String[] vocabulary(int size, long seed)
+    {
+        Random rand = new Random(seed);
+        String[] vocabulary = new String[size];
+        for (int i = 0; i < size; i++) {
+            char[] word = new char[3 + rand.nextInt(8)];
+            for (int j = 0; j < word.length; j++) {
+                word[j] = (char) ('a' + rand.nextInt(26));
+            }
+            vocabulary[i] = new String(word);
+        }
+        return vocabulary;
+    }
+
+    // A vocabulary index, skewed towards the front
+    static int skewedIndex(Random rand, int size)
+    {
+        return rand.nextInt(rand.nextInt(size) + 1);
+    }
+
+    /**
+     * pageCount pages of WORDS_PER_PAGE words each, their terms interned in
+     * Main.termDictionary.
+     */
+    static List<WebPage> pages(int pageCount)
+    {
+        String[] vocabulary = vocabulary(VOCABULARY_SIZE, SEED);
+        TermDictionary dictionary = Main.termDictionary;
+        Random rand = new Random(SEED + pageCount);
+
+        List<WebPage> pages = new ArrayList<>(pageCount);
+        for (int p = 0; p < pageCount; p++) {
+            TermFrequencyMap frequencies = new TermFrequencyMap(WORDS_PER_PAGE);
+            for (int w = 0; w < WORDS_PER_PAGE; w++) {
+                frequencies.increment(dictionary.idOf(vocabulary[skewedIndex(rand, vocabulary.length)]), 1);
+            }
+            pages.add(new WebPage("https://en.wikipedia.org/wiki/Synthetic_" + p, TermVector.of(frequencies)));
+        }
+        return pages;
+    }
+}
@@ -0,0 +1,83 @@
+package com.jasonsavlov;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tokenizing a Wikipedia-sized page body into term counts, comparing the
+ * old split/replaceAll/toLowerCase loop with the streaming Tokenizer.
+ *
+ * Run with "-prof gc" to see the allocation rate of each.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class TokenizerBenchmark
+{
+    private static final String PUNCTUATION = ".,;:()[]\"'-";
+
+    // Roughly the size of the text of a long Wikipedia article, in characters
+    @Param({"100000", "1000000"})
+    public int bodyLength;
+
+    private String body;
+    private TermDictionary dictionary;
+    private final Tokenizer tokenizer = new Tokenizer();
+
+    @Setup(Level.Trial)
+    public void buildBody()
+    {
+        Random rand = new Random(365);
+        String[] vocabulary = new String[20_000];
+        for (int i = 0; i < vocabulary.length; i++) {
+            char[] word = new char[2 + rand.nextInt(10)];
+            for (int j = 0; j < word.length; j++) {
+                word[j] = (char) ((rand.nextInt(8) == 0 ? 'A' : 'a') + rand.nextInt(26));
+            }
+            vocabulary[i] = new String(word);
+        }
+
+        StringBuilder sb = new StringBuilder(bodyLength + 32);
+        while (sb.length() < bodyLength) {
+            // Skew towards the front of the vocabulary, as real text does
+            int r = rand.nextInt(vocabulary.length);
+            sb.append(vocabulary[rand.nextInt(r + 1)]);
+            if (rand.nextInt(6) == 0)
+                sb.append(PUNCTUATION.charAt(rand.nextInt(PUNCTUATION.length())));
+            if (rand.nextInt(20) == 0)
+                sb.append(rand.nextInt(2016));
+            sb.append(' ');
+        }
+        body = sb.toString();
+
+        dictionary = new TermDictionary();
+        tokenizer.countTerms(body, dictionary, new TermFrequencyMap());
+    }
+
+    @Benchmark
+    public TermFrequencyMap splitAndReplace()
+    {
+        TermFrequencyMap frequencies = new TermFrequencyMap();
+        String[] words = body.split("\\s+");
+        for (int i = 0; i < words.length; i++) {
+            words[i] = words[i].replaceAll("[^a-zA-Z]", "").toLowerCase();
+        }
+        for (String s : words) {
+            frequencies.increment(dictionary.idOf(s), 1);
+        }
+        return frequencies;
+    }
+
+    @Benchmark
+    public TermFrequencyMap streaming()
+    {
+        TermFrequencyMap frequencies = new TermFrequencyMap();
+        tokenizer.countTerms(body, dictionary, frequencies);
+        return frequencies;
+    }
+}
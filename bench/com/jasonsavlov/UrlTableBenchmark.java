@@ -0,0 +1,74 @@
+package com.jasonsavlov;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The crawler's visited-set traffic (mostly lookups of already-seen links, with
+ * some new URLs) against the striped UrlTable and the synchronized JSHashTable.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class UrlTableBenchmark
+{
+    private static final int URL_COUNT = 200_000;
+
+    @Param({"JSHashTable", "UrlTable"})
+    public String table;
+
+    private String[] urls;
+    private JSHashTable hashTable;
+    private UrlTable urlTable;
+
+    @Setup(Level.Trial)
+    public void buildUrls()
+    {
+        urls = new String[URL_COUNT];
+        for (int i = 0; i < URL_COUNT; i++) {
+            urls[i] = "https://en.wikipedia.org/wiki/Article_" + Integer.toString(i * 7919, 36);
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void freshTable()
+    {
+        hashTable = new JSHashTable();
+        urlTable = new UrlTable();
+    }
+
+    private boolean visitLink()
+    {
+        String url = urls[ThreadLocalRandom.current().nextInt(URL_COUNT)];
+        if (table.equals("UrlTable")) {
+            return urlTable.contains(url) || urlTable.addIfAbsent(url);
+        }
+        return hashTable.contains(url) || hashTable.add(url, null);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public boolean oneThread()
+    {
+        return visitLink();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public boolean fourThreads()
+    {
+        return visitLink();
+    }
+
+    @Benchmark
+    @Threads(16)
+    public boolean sixteenThreads()
+    {
+        return visitLink();
+    }
+}
@@ -0,0 +1,73 @@
+package com.jasonsavlov;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A warm start that decodes the whole saved corpus: loading the corpus file,
+ * adding its pages to a CorpusIndex on Main.computePool, and building the
+ * postings of every page, as the first query does.
+ *
+ * The pages and bytes counters are reported per second, so they give the
+ * load's throughput in pages/s and bytes/s.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class WarmStartBenchmark
+{
+    @Param({"1000", "10000"})
+    public int pageCount;
+
+    private File corpusFile;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Loaded
+    {
+        public long pages;
+        public long bytes;
+
+        @Setup(Level.Iteration)
+        public void reset()
+        {
+            pages = 0;
+            bytes = 0;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void writeCorpus() throws IOException
+    {
+        corpusFile = File.createTempFile("bench-warm", ".csc365");
+        CorpusFile.write(SyntheticCorpus.pages(pageCount), corpusFile);
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteFile()
+    {
+        corpusFile.delete();
+    }
+
+    @Benchmark
+    public int loadAndIndex(Loaded loaded) throws IOException
+    {
+        List<WebPage> pages = CorpusFile.read(corpusFile);
+        CorpusIndex index = new CorpusIndex(Main.computePool);
+        for (WebPage page : pages) {
+            index.addPage(page);
+        }
+        index.indexPendingPages();
+
+        loaded.pages += pages.size();
+        loaded.bytes += corpusFile.length();
+        return index.size();
+    }
+}
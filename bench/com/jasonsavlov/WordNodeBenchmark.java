@@ -0,0 +1,57 @@
+package com.jasonsavlov;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serializing WordNodes to the legacy tree format and reading them back, one
+ * node per call over a fixed set of words and counts.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class WordNodeBenchmark
+{
+    private static final int NODE_COUNT = 4096;
+
+    private WordNode[] nodes;
+    private ByteBuffer[] serialized;
+    private int next = 0;
+
+    @Setup(Level.Trial)
+    public void buildNodes()
+    {
+        String[] words = SyntheticCorpus.vocabulary(NODE_COUNT, SyntheticCorpus.SEED);
+        Random rand = new Random(SyntheticCorpus.SEED);
+        nodes = new WordNode[NODE_COUNT];
+        serialized = new ByteBuffer[NODE_COUNT];
+        for (int i = 0; i < NODE_COUNT; i++) {
+            nodes[i] = new WordNode(words[i], 1 + rand.nextInt(100));
+            serialized[i] = nodes[i].getSerializedNode();
+        }
+    }
+
+    private int nextIndex()
+    {
+        next = (next + 1) & (NODE_COUNT - 1);
+        return next;
+    }
+
+    @Benchmark
+    public ByteBuffer serialize()
+    {
+        return nodes[nextIndex()].getSerializedNode();
+    }
+
+    @Benchmark
+    public WordNode deserialize()
+    {
+        return WordNode.nodeFromBytes(serialized[nextIndex()]);
+    }
+}
@@ -0,0 +1,356 @@
+package com.jasonsavlov;
+
+import java.io.*;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.zip.CRC32C;
+
+/**
+ * The on-disk format for everything saved between runs: the pages, their term
+ * frequencies and the crawler's visited set.
+ *
+ *   header     magic, format version, page count, file length
+ *   directory  per page: URL, last-modified time, ETag (empty if none), offset of its
+ *              term block, block length, term count, L2 norm
+ *   URLs       fingerprint count, the fingerprints of the finished URLs and of every
+ *              page in the file (see UrlTable)
+ *   checksum   CRC-32C of everything above
+ *   blocks     per page: its terms and counts, front-coded and checksummed (see TermBlockCodec)
+ *
+ * Every variable-length field carries its length, so nothing has to be scanned
+ * for. Term blocks are encoded in parallel on Main.computePool and the whole
+ * file goes out through one FileChannel as a single gathering write, to a
+ * temporary file that is then renamed over the old one. A file whose length or
+ * checksum is wrong is refused, so one cut short is never taken for a saved
+ * corpus.
+ *
+ * Reading maps the file and decodes only the header and directory. Each page
+ * keeps a view of its own block and decodes it the first time its terms are
+ * needed, so untouched pages cost neither heap nor resident memory.
+ */
+public final class CorpusFile
+{
+    static final int MAGIC = 0x43534333;   // "CSC3"
+    static final int VERSION = 6;
+
+    private static final int HEADER_SIZE = 20;
+
+    // URLs and ETags are prefixed with an unsigned short length
+    static final int MAX_FIELD_LENGTH = 0xFFFF;
+
+    private CorpusFile()
+    {
+    }
+
+    // What a corpus file holds
+    public static final class Contents
+    {
+        public final List<WebPage> pages;
+
+        // The visited set
+        public final UrlTable urlTable;
+
+        private Contents(List<WebPage> pages, UrlTable urlTable)
+        {
+            this.pages = pages;
+            this.urlTable = urlTable;
+        }
+    }
+
+    // One page's term block, still encoded, inside a mapped corpus file
+    static final class PageBlock
+    {
+        private final ByteBuffer block;
+        private final int termCount;
+        private final double norm;
+
+        private PageBlock(ByteBuffer block, int termCount, double norm)
+        {
+            this.block = block;
+            this.termCount = termCount;
+            this.norm = norm;
+        }
+
+        int termCount()
+        {
+            return termCount;
+        }
+
+        double norm()
+        {
+            return norm;
+        }
+
+        TermVector decode()
+        {
+            return decodeTermBlock(block, termCount);
+        }
+
+        // The encoded bytes, ready to be copied into a new file as they are
+        ByteBuffer raw()
+        {
+            return block.duplicate();
+        }
+    }
+
+    // Encodes the term blocks of pages [from, to), splitting down to one page per task
+    private static final class EncodeTask extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final List<WebPage> pages;
+        private final ByteBuffer[] blocks;
+        private final int from;
+        private final int to;
+
+        EncodeTask(List<WebPage> pages, ByteBuffer[] blocks, int from, int to)
+        {
+            this.pages = pages;
+            this.blocks = blocks;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute()
+        {
+            if (to - from == 1) {
+                WebPage page = pages.get(from);
+                PageBlock stored = page.getStoredTerms();
+                blocks[from] = stored != null ? stored.raw() : encodeTermBlock(page.getTermVector());
+                return;
+            }
+            if (to - from > 1) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new EncodeTask(pages, blocks, from, mid), new EncodeTask(pages, blocks, mid, to));
+            }
+        }
+    }
+
+    public static void write(List<WebPage> listOfPages, File file) throws IOException
+    {
+        write(listOfPages, new UrlTable(), file);
+    }
+
+    public static void write(List<WebPage> pages, UrlTable urlTable, File file) throws IOException
+    {
+        // A URL too long for its length field would corrupt the directory, so its page isn't saved
+        List<WebPage> listOfPages = new ArrayList<>(pages.size());
+        for (WebPage page : pages) {
+            if (page.getPageURL().getBytes(StandardCharsets.UTF_8).length > MAX_FIELD_LENGTH) {
+                System.out.println("Not saving a page whose URL is over " + MAX_FIELD_LENGTH + " bytes: "
+                        + page.getPageURL().substring(0, 100) + "...");
+            } else {
+                listOfPages.add(page);
+            }
+        }
+
+        // Encode each page's term block on its own task, reusing blocks that are still mapped from disk
+        ByteBuffer[] blocks = new ByteBuffer[listOfPages.size()];
+        EncodeTask encode = new EncodeTask(listOfPages, blocks, 0, blocks.length);
+        if (ForkJoinTask.getPool() == Main.computePool) {
+            encode.invoke();
+        } else {
+            Main.computePool.invoke(encode);
+        }
+
+        List<byte[]> urls = new ArrayList<>(listOfPages.size());
+        List<byte[]> tags = new ArrayList<>(listOfPages.size());
+        int directorySize = 0;
+        for (WebPage page : listOfPages) {
+            byte[] url = page.getPageURL().getBytes(StandardCharsets.UTF_8);
+            String entityTag = page.getEntityTag();
+            byte[] tag = entityTag != null ? entityTag.getBytes(StandardCharsets.UTF_8) : new byte[0];
+            if (tag.length > MAX_FIELD_LENGTH) {
+                // Saved without one, so the page is fetched in full when it's next revalidated
+                tag = new byte[0];
+            }
+            urls.add(url);
+            tags.add(tag);
+            directorySize += 2 + url.length + 8 + 2 + tag.length + 8 + 4 + 4 + 8;
+        }
+
+        // A saved page is visited even if the crawl that indexed it hasn't marked it finished yet
+        List<String> pageUrls = new ArrayList<>(listOfPages.size());
+        for (WebPage page : listOfPages) {
+            pageUrls.add(page.getPageURL());
+        }
+        long[] fingerprints = urlTable.finishedFingerprints(pageUrls);
+        int metadataSize = HEADER_SIZE + directorySize + 4 + fingerprints.length * 8 + 4;
+
+        ByteBuffer header = ByteBuffer.allocate(metadataSize).order(ByteOrder.BIG_ENDIAN);
+        header.putInt(MAGIC).putInt(VERSION).putInt(listOfPages.size()).putLong(0L);
+
+        long offset = header.capacity();
+        for (int i = 0; i < listOfPages.size(); i++) {
+            byte[] url = urls.get(i);
+            ByteBuffer block = blocks[i];
+            WebPage page = listOfPages.get(i);
+            byte[] tag = tags.get(i);
+            header.putShort((short) url.length).put(url).putLong(page.getLastModifiedTime());
+            header.putShort((short) tag.length).put(tag);
+            header.putLong(offset).putInt(block.remaining()).putInt(page.getTermCount()).putDouble(page.getTermNorm());
+            offset += block.remaining();
+        }
+        header.putInt(fingerprints.length);
+        for (long fingerprint : fingerprints) {
+            header.putLong(fingerprint);
+        }
+        header.putLong(12, offset);
+
+        CRC32C crc = new CRC32C();
+        crc.update(header.array(), 0, header.position());
+        header.putInt((int) crc.getValue());
+        header.flip();
+
+        ByteBuffer[] buffers = new ByteBuffer[blocks.length + 1];
+        buffers[0] = header;
+        System.arraycopy(blocks, 0, buffers, 1, blocks.length);
+
+        // The old file may still be mapped by the pages being written, so never truncate it in place
+        Path target = file.toPath();
+        Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            long remaining = offset;
+            while (remaining > 0) {
+                remaining -= channel.write(buffers);
+            }
+            channel.force(false);
+        }
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public static List<WebPage> read(File file) throws IOException
+    {
+        return load(file).pages;
+    }
+
+    public static Contents load(File file) throws IOException
+    {
+        MappedByteBuffer map;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Corpus file is too large to map: " + file);
+            }
+            map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        try {
+            if (map.getInt() != MAGIC) {
+                throw new IOException("Not a corpus file: " + file);
+            }
+            int version = map.getInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported corpus file version " + version + ": " + file);
+            }
+
+            int pageCount = map.getInt();
+            if (map.getLong() != map.capacity()) {
+                throw new IOException("Incomplete corpus file: " + file);
+            }
+            List<WebPage> pages = new ArrayList<>(pageCount);
+            for (int i = 0; i < pageCount; i++) {
+                byte[] url = new byte[map.getShort() & 0xFFFF];
+                map.get(url);
+                long lastModified = map.getLong();
+                byte[] tag = new byte[map.getShort() & 0xFFFF];
+                map.get(tag);
+                String entityTag = tag.length > 0 ? new String(tag, StandardCharsets.UTF_8) : null;
+                int offset = (int) map.getLong();
+                int length = map.getInt();
+                int termCount = map.getInt();
+                double norm = map.getDouble();
+
+                ByteBuffer block = map.duplicate();
+                block.position(offset).limit(offset + length);
+                WebPage page = new WebPage(new String(url, StandardCharsets.UTF_8),
+                        new PageBlock(block.slice(), termCount, norm));
+                page.setLastModifiedTime(lastModified);
+                page.setEntityTag(entityTag);
+                pages.add(page);
+            }
+
+            int fingerprintCount = map.getInt();
+            if (fingerprintCount < 0 || fingerprintCount > map.remaining() / 8) {
+                throw new IOException("Corrupt corpus file: " + file);
+            }
+            LongBuffer fingerprints = map.slice().asLongBuffer();
+            fingerprints.limit(fingerprintCount);
+            map.position(map.position() + fingerprintCount * 8);
+
+            ByteBuffer metadata = map.duplicate();
+            metadata.flip();
+            CRC32C crc = new CRC32C();
+            crc.update(metadata);
+            if ((int) crc.getValue() != map.getInt()) {
+                throw new IOException("Corpus file fails its checksum: " + file);
+            }
+            return new Contents(pages, UrlTable.ofFinished(fingerprints));
+        } catch (BufferUnderflowException | IllegalArgumentException ex) {
+            throw new IOException("Corrupt corpus file: " + file, ex);
+        }
+    }
+
+    public static boolean isCorpusFile(File file)
+    {
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            return in.readInt() == MAGIC;
+        } catch (IOException ex) {
+            return false;
+        }
+    }
+
+    // Reads a cache file written by JSBTree.serializeBTrees
+    public static List<WebPage> readLegacy(File file) throws IOException
+    {
+        List<WebPage> pages = new ArrayList<>();
+
+        for (Map.Entry<String, JSBTree> entry : JSBTree.generateTreesFromFile(file).entrySet()) {
+            List<WordNode> words = entry.getValue().treeToList();
+            TermFrequencyMap frequencies = new TermFrequencyMap(words.size());
+            for (WordNode wn : words) {
+                frequencies.increment(Main.termDictionary.idOf(wn.value), wn.frequency);
+            }
+            pages.add(new WebPage(entry.getKey(), TermVector.of(frequencies)));
+        }
+        return pages;
+    }
+
+    // The vector's terms in ascending string order, the order blocks and trees are written in
+    static String[] sortedTerms(TermVector vector)
+    {
+        TermDictionary dictionary = Main.termDictionary;
+        String[] terms = new String[vector.size()];
+        for (int i = 0; i < terms.length; i++) {
+            terms[i] = dictionary.termOf(vector.termIdAt(i));
+        }
+        Arrays.sort(terms);
+        return terms;
+    }
+
+    static ByteBuffer encodeTermBlock(TermVector vector)
+    {
+        return TermBlockCodec.get().encode(vector, Main.termDictionary);
+    }
+
+    static TermVector decodeTermBlock(ByteBuffer block, int termCount)
+    {
+        return TermBlockCodec.get().decode(block, termCount, Main.termDictionary);
+    }
+}
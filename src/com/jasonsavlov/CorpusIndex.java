@@ -0,0 +1,510 @@
+package com.jasonsavlov;
+
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * The set of indexed pages, each with a dense page ID, and an inverted index
+ * from term ID to the pages that contain the term.
+ *
+ * Pages are added as they finish downloading or are restored from disk, but
+ * their postings are only built when the next query needs them, or when
+ * indexPendingPages is called. Their term blocks are decoded on the index's
+ * pool, one task per page. Queries read concurrently under a shared lock.
+ *
+ * A page that changes can be replaced in place: it keeps its ID, and only the
+ * postings of the terms whose counts changed are touched.
+ *
+ * A saved page whose terms fail their checksum is indexed as if it had none,
+ * and its URL is kept for takeDamagedUrls, so it can be fetched again and
+ * replaced rather than break every query.
+ */
+public final class CorpusIndex
+{
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final ForkJoinPool pool;
+
+    // Held while pending pages are decoded, so concurrent queries don't all do it
+    private final ReentrantLock indexingLock = new ReentrantLock();
+
+    // Pages indexed as empty because their terms couldn't be decoded; guarded by indexingLock
+    private final BitSet damaged = new BitSet();
+    private final List<String> damagedUrls = new ArrayList<>();
+
+    private final List<WebPage> pages = new ArrayList<>();
+    private final Map<String, Integer> pageIds = new HashMap<>();
+    private double[] norms = new double[1024];
+    private Postings[] postings = new Postings[1024];
+
+    // Pages [0, indexed_count) have postings; the rest are waiting for a query
+    private volatile int page_count = 0;
+    private volatile int indexed_count = 0;
+
+    // Page IDs and counts for one term, in page ID order
+    private static final class Postings
+    {
+        private int[] pageIds = new int[4];
+        private int[] counts = new int[4];
+        private int size = 0;
+
+        private void add(int pageId, int count)
+        {
+            if (size == pageIds.length) {
+                pageIds = Arrays.copyOf(pageIds, size * 2);
+                counts = Arrays.copyOf(counts, size * 2);
+            }
+            pageIds[size] = pageId;
+            counts[size] = count;
+            size++;
+        }
+
+        // Sets the page's count, inserting or removing its posting as needed to keep page ID order
+        private void set(int pageId, int count)
+        {
+            int i = Arrays.binarySearch(pageIds, 0, size, pageId);
+            if (i >= 0) {
+                if (count != 0) {
+                    counts[i] = count;
+                } else {
+                    System.arraycopy(pageIds, i + 1, pageIds, i, size - i - 1);
+                    System.arraycopy(counts, i + 1, counts, i, size - i - 1);
+                    size--;
+                }
+            } else if (count != 0) {
+                i = -i - 1;
+                if (size == pageIds.length) {
+                    pageIds = Arrays.copyOf(pageIds, size * 2);
+                    counts = Arrays.copyOf(counts, size * 2);
+                }
+                System.arraycopy(pageIds, i, pageIds, i + 1, size - i);
+                System.arraycopy(counts, i, counts, i + 1, size - i);
+                pageIds[i] = pageId;
+                counts[i] = count;
+                size++;
+            }
+        }
+    }
+
+    /**
+     * The pages that share at least one term with a query, in page ID order,
+     * with what scoring them needs: their URLs, norms and dot products with
+     * the query.
+     */
+    public static final class Matches
+    {
+        public final String[] urls;
+        public final double[] norms;
+        public final long[] dots;
+
+        private Matches(String[] urls, double[] norms, long[] dots)
+        {
+            this.urls = urls;
+            this.norms = norms;
+            this.dots = dots;
+        }
+
+        public int size()
+        {
+            return dots.length;
+        }
+    }
+
+    // Decodes each page's terms on its own task, so one big page doesn't hold up the rest
+    private static final class DecodeTask extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final List<WebPage> pages;
+        private final TermVector[] vectors;
+        private final int from;
+        private final int to;
+
+        DecodeTask(List<WebPage> pages, TermVector[] vectors, int from, int to)
+        {
+            this.pages = pages;
+            this.vectors = vectors;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute()
+        {
+            if (to - from == 1) {
+                try {
+                    vectors[from] = pages.get(from).readTermVector();
+                } catch (UncheckedIOException ex) {
+                    // Left null, for indexPendingPages to index as empty
+                    System.out.println("Can't decode the saved terms of " + pages.get(from).getPageURL()
+                            + ": " + ex.getCause().getMessage());
+                }
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new DecodeTask(pages, vectors, from, mid), new DecodeTask(pages, vectors, mid, to));
+        }
+    }
+
+    public CorpusIndex()
+    {
+        this(ForkJoinPool.commonPool());
+    }
+
+    public CorpusIndex(ForkJoinPool pool)
+    {
+        this.pool = pool;
+    }
+
+    /**
+     * Adds the page to the corpus and returns its ID. Its terms are indexed lazily.
+     */
+    public int addPage(WebPage page)
+    {
+        double norm = page.getTermNorm();
+
+        lock.writeLock().lock();
+        try {
+            int pageId = pages.size();
+            pages.add(page);
+            pageIds.put(page.getPageURL(), pageId);
+            if (pageId == norms.length) {
+                norms = Arrays.copyOf(norms, pageId * 2);
+            }
+            norms[pageId] = norm;
+            page_count = pageId + 1;
+            return pageId;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Puts the page in place of the indexed page with the same URL, keeping its
+     * ID, and adjusts the postings of just the terms whose counts changed.
+     * Returns false, having added the page instead, if no page had its URL.
+     */
+    public boolean replacePage(WebPage page)
+    {
+        TermVector next = page.getTermVector();
+
+        // Keeps pending pages from being indexed while we swap one of them
+        lockIndexing();
+        try {
+            Integer id;
+            WebPage previous;
+            lock.readLock().lock();
+            try {
+                id = pageIds.get(page.getPageURL());
+                previous = id != null ? pages.get(id) : null;
+            } finally {
+                lock.readLock().unlock();
+            }
+            if (id == null) {
+                addPage(page);
+                return false;
+            }
+
+            // Pages without postings yet just need swapping; the rest need the old terms to diff against
+            int pageId = id;
+            TermVector old = null;
+            if (pageId < indexed_count) {
+                old = damaged.get(pageId) ? TermVector.EMPTY : previous.readTermVector();
+                damaged.clear(pageId);
+            }
+
+            lock.writeLock().lock();
+            try {
+                pages.set(pageId, page);
+                norms[pageId] = next.norm();
+                if (old != null) {
+                    updatePostings(pageId, old, next);
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+            return true;
+        } finally {
+            indexingLock.unlock();
+        }
+    }
+
+    // Applies the difference between two sorted term vectors to the page's postings
+    private void updatePostings(int pageId, TermVector old, TermVector next)
+    {
+        int i = 0, j = 0;
+        while (i < old.size() || j < next.size()) {
+            int oldTerm = i < old.size() ? old.termIdAt(i) : Integer.MAX_VALUE;
+            int nextTerm = j < next.size() ? next.termIdAt(j) : Integer.MAX_VALUE;
+            if (oldTerm < nextTerm) {
+                postings[oldTerm].set(pageId, 0);
+                i++;
+            } else if (nextTerm < oldTerm) {
+                postingsFor(nextTerm).set(pageId, next.countAt(j));
+                j++;
+            } else {
+                if (old.countAt(i) != next.countAt(j)) {
+                    postings[nextTerm].set(pageId, next.countAt(j));
+                }
+                i++;
+                j++;
+            }
+        }
+    }
+
+    /**
+     * Builds postings for every page added since the last query. Queries do
+     * this themselves; calling it ahead of time keeps the cost off the first one.
+     */
+    public void indexPendingPages()
+    {
+        if (indexed_count == page_count) return;
+
+        lockIndexing();
+        try {
+            List<WebPage> pending;
+            int firstId = indexed_count;
+            lock.readLock().lock();
+            try {
+                pending = new ArrayList<>(pages.subList(firstId, pages.size()));
+            } finally {
+                lock.readLock().unlock();
+            }
+            if (pending.isEmpty()) return;
+
+            // Decode outside the lock; pages still mapped from disk don't keep their decoded terms
+            TermVector[] vectors = new TermVector[pending.size()];
+            DecodeTask decode = new DecodeTask(pending, vectors, 0, vectors.length);
+            if (ForkJoinTask.getPool() == pool) {
+                decode.invoke();
+            } else {
+                pool.invoke(decode);
+            }
+
+            lock.writeLock().lock();
+            try {
+                for (int n = 0; n < vectors.length; n++) {
+                    if (vectors[n] == null) {
+                        damaged.set(firstId + n);
+                        damagedUrls.add(pending.get(n).getPageURL());
+                        norms[firstId + n] = 0.0;
+                        continue;
+                    }
+                    addPostings(firstId + n, vectors[n]);
+                }
+                indexed_count = firstId + vectors.length;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        } finally {
+            indexingLock.unlock();
+        }
+    }
+
+    /**
+     * Takes indexingLock. A pool worker that has to wait for it, while another
+     * thread decodes on the same pool, tells the pool first, so it can start a
+     * spare worker rather than run short of threads for that decode.
+     */
+    private void lockIndexing()
+    {
+        if (indexingLock.tryLock())
+            return;
+        if (!(Thread.currentThread() instanceof ForkJoinWorkerThread)) {
+            indexingLock.lock();
+            return;
+        }
+
+        try {
+            ForkJoinPool.managedBlock(new ForkJoinPool.ManagedBlocker()
+            {
+                @Override
+                public boolean block()
+                {
+                    indexingLock.lock();
+                    return true;
+                }
+
+                @Override
+                public boolean isReleasable()
+                {
+                    return indexingLock.isHeldByCurrentThread() || indexingLock.tryLock();
+                }
+            });
+        } catch (InterruptedException ex) {
+            // lock() isn't interruptible, so block() never throws this
+            Thread.currentThread().interrupt();
+            indexingLock.lock();
+        }
+    }
+
+    /**
+     * The URLs of the pages found damaged since the last call, indexed as
+     * empty until they are replaced.
+     */
+    public List<String> takeDamagedUrls()
+    {
+        lockIndexing();
+        try {
+            List<String> urls = new ArrayList<>(damagedUrls);
+            damagedUrls.clear();
+            return urls;
+        } finally {
+            indexingLock.unlock();
+        }
+    }
+
+    private void addPostings(int pageId, TermVector vector)
+    {
+        for (int i = 0; i < vector.size(); i++) {
+            postingsFor(vector.termIdAt(i)).add(pageId, vector.countAt(i));
+        }
+    }
+
+    private Postings postingsFor(int termId)
+    {
+        if (termId >= postings.length) {
+            postings = Arrays.copyOf(postings, Math.max(termId + 1, postings.length * 2));
+        }
+        Postings p = postings[termId];
+        if (p == null) {
+            p = postings[termId] = new Postings();
+        }
+        return p;
+    }
+
+    public WebPage getPage(int pageId)
+    {
+        lock.readLock().lock();
+        try {
+            return pages.get(pageId);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int size()
+    {
+        return page_count;
+    }
+
+    // The number of pages that contain the term
+    public int documentFrequency(int termId)
+    {
+        indexPendingPages();
+
+        lock.readLock().lock();
+        try {
+            return termId < postings.length && postings[termId] != null ? postings[termId].size : 0;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public double normOf(int pageId)
+    {
+        lock.readLock().lock();
+        try {
+            return norms[pageId];
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public List<WebPage> getPages()
+    {
+        lock.readLock().lock();
+        try {
+            return new ArrayList<>(pages);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public long[] dotProducts(TermVector query)
+    {
+        return dotProducts(query, 0, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Scores the query against the whole corpus in one pass over its terms'
+     * postings, then reads the URL and norm of every page it matched, all
+     * under a single hold of the lock.
+     */
+    public Matches matches(TermVector query)
+    {
+        indexPendingPages();
+
+        lock.readLock().lock();
+        try {
+            long[] dots = new long[indexed_count];
+            accumulate(query, dots, 0, dots.length);
+
+            int count = 0;
+            for (long dot : dots) {
+                if (dot != 0) count++;
+            }
+            String[] urls = new String[count];
+            double[] matchNorms = new double[count];
+            long[] matchDots = new long[count];
+            for (int pageId = 0, n = 0; n < count; pageId++) {
+                if (dots[pageId] == 0) continue;
+                urls[n] = pages.get(pageId).getPageURL();
+                matchNorms[n] = norms[pageId];
+                matchDots[n++] = dots[pageId];
+            }
+            return new Matches(urls, matchNorms, matchDots);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the dot product of the query with every page whose ID is in
+     * [fromPage, toPage), indexed from fromPage, accumulated one query term at a
+     * time over that term's postings. Pages that share no terms with the query
+     * are never touched and stay 0.
+     */
+    public long[] dotProducts(TermVector query, int fromPage, int toPage)
+    {
+        indexPendingPages();
+
+        lock.readLock().lock();
+        try {
+            toPage = Math.min(toPage, indexed_count);
+            long[] dots = new long[Math.max(0, toPage - fromPage)];
+            accumulate(query, dots, fromPage, toPage);
+            return dots;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Adds each query term's postings in [fromPage, toPage) into dots; called with the lock held
+    private void accumulate(TermVector query, long[] dots, int fromPage, int toPage)
+    {
+        for (int i = 0; i < query.size(); i++) {
+            int termId = query.termIdAt(i);
+            if (termId >= postings.length || postings[termId] == null)
+                continue;
+
+            // Postings are in page ID order, so jump straight to the range
+            Postings p = postings[termId];
+            long queryCount = query.countAt(i);
+            int j = fromPage == 0 ? 0 : Arrays.binarySearch(p.pageIds, 0, p.size, fromPage);
+            for (j = j >= 0 ? j : -j - 1; j < p.size && p.pageIds[j] < toPage; j++) {
+                dots[p.pageIds[j] - fromPage] += queryCount * p.counts[j];
+            }
+        }
+    }
+}
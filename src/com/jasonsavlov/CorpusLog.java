@@ -0,0 +1,299 @@
+package com.jasonsavlov;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32C;
+
+/**
+ * A write-ahead log of indexed pages, appended to as each page finishes.
+ * Appends reach the OS straight away, so the process dying loses at most the
+ * page being written, but they are only forced to disk by sync(): a crash of
+ * the machine loses whatever was appended since the last one.
+ *
+ *   header  magic, format version
+ *   record  payload length, CRC-32C of the payload, payload
+ *   payload URL, last-modified time, ETag, term count, L2 norm,
+ *           term block (see TermBlockCodec)
+ *
+ * On startup the log is replayed over the corpus file, later records for a
+ * URL winning. Replay stops at the first record that is cut short or fails
+ * its checksum, which is where a crash interrupted an append, and the next
+ * append overwrites it. A log in any other format is not replayed, and is
+ * started over before it is appended to.
+ *
+ * Compaction writes every indexed page to a new corpus file, then drops the
+ * records it covers, keeping any that were appended while it ran. Appends
+ * only wait for the short final step.
+ */
+public final class CorpusLog
+{
+    static final int MAGIC = 0x4353434C;   // "CSCL"
+    static final int VERSION = 2;
+
+    private static final int HEADER_SIZE = 8;
+    private static final int RECORD_HEADER_SIZE = 8;
+
+    private final File file;
+    private final Object compactionLock = new Object();
+
+    // Open for appending at the end of the last whole record; guarded by this
+    private FileChannel channel;
+
+    public CorpusLog(File file)
+    {
+        this.file = file;
+    }
+
+    public File getFile()
+    {
+        return file;
+    }
+
+    public synchronized void append(WebPage page) throws IOException
+    {
+        open();
+        write(page);
+    }
+
+    private void write(WebPage page) throws IOException
+    {
+        byte[] url = page.getPageURL().getBytes(StandardCharsets.UTF_8);
+        String entityTag = page.getEntityTag();
+        byte[] tag = entityTag != null ? entityTag.getBytes(StandardCharsets.UTF_8) : new byte[0];
+        if (url.length > CorpusFile.MAX_FIELD_LENGTH)
+            throw new IOException("Can't log a page whose URL is over " + CorpusFile.MAX_FIELD_LENGTH + " bytes: "
+                    + page.getPageURL().substring(0, 100) + "...");
+        if (tag.length > CorpusFile.MAX_FIELD_LENGTH) {
+            // Logged without one, as the corpus file would save it
+            tag = new byte[0];
+        }
+        TermVector vector = page.getTermVector();
+        ByteBuffer block = CorpusFile.encodeTermBlock(vector);
+
+        int length = 2 + url.length + 8 + 2 + tag.length + 4 + 8 + block.remaining();
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_SIZE + length);
+        record.position(RECORD_HEADER_SIZE);
+        record.putShort((short) url.length).put(url).putLong(page.getLastModifiedTime());
+        record.putShort((short) tag.length).put(tag);
+        record.putInt(vector.size()).putDouble(vector.norm()).put(block);
+
+        CRC32C crc = new CRC32C();
+        crc.update(record.array(), RECORD_HEADER_SIZE, length);
+        record.putInt(0, length).putInt(4, (int) crc.getValue());
+        record.flip();
+
+        while (record.hasRemaining()) {
+            channel.write(record);
+        }
+    }
+
+    // Opens the log, starting a new one, or cutting off a torn tail, as needed
+    private void open() throws IOException
+    {
+        if (channel != null)
+            return;
+
+        channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        if (channel.size() > 0) {
+            long end = scan(readAll(), null);
+            if (end >= 0) {
+                channel.truncate(end);
+                channel.position(end);
+                return;
+            }
+        }
+
+        // Empty, or not a log we can read: start over
+        channel.truncate(0);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).putInt(VERSION);
+        header.flip();
+        channel.write(header, 0);
+        channel.position(HEADER_SIZE);
+    }
+
+    private ByteBuffer readAll() throws IOException
+    {
+        ByteBuffer all = ByteBuffer.allocate((int) channel.size());
+        while (all.hasRemaining()) {
+            if (channel.read(all, all.position()) < 0)
+                break;
+        }
+        all.flip();
+        return all;
+    }
+
+    /**
+     * Decodes the log's whole records into pages, if pages isn't null, and
+     * returns where the last one ends, or -1 if the header is wrong.
+     */
+    private static long scan(ByteBuffer log, List<WebPage> pages)
+    {
+        if (log.remaining() < HEADER_SIZE || log.getInt(0) != MAGIC || log.getInt(4) != VERSION)
+            return -1;
+        log.position(HEADER_SIZE);
+
+        CRC32C crc = new CRC32C();
+        while (log.remaining() >= RECORD_HEADER_SIZE) {
+            int start = log.position();
+            int length = log.getInt();
+            int checksum = log.getInt();
+            if (length < 0 || length > log.remaining()) {
+                log.position(start);
+                break;
+            }
+
+            ByteBuffer record = log.slice();
+            record.limit(length);
+            crc.reset();
+            crc.update(record.duplicate());
+            if ((int) crc.getValue() != checksum) {
+                log.position(start);
+                break;
+            }
+            log.position(log.position() + length);
+
+            if (pages != null) {
+                try {
+                    pages.add(decode(record));
+                } catch (BufferUnderflowException | IllegalArgumentException | UncheckedIOException ex) {
+                    log.position(start);
+                    break;
+                }
+            }
+        }
+        return log.position();
+    }
+
+    private static WebPage decode(ByteBuffer record)
+    {
+        byte[] url = new byte[record.getShort() & 0xFFFF];
+        record.get(url);
+        long lastModified = record.getLong();
+        byte[] tag = new byte[record.getShort() & 0xFFFF];
+        record.get(tag);
+        int termCount = record.getInt();
+        record.getDouble();
+
+        TermVector vector = CorpusFile.decodeTermBlock(record, termCount);
+        WebPage page = new WebPage(new String(url, StandardCharsets.UTF_8), vector);
+        page.setLastModifiedTime(lastModified);
+        page.setEntityTag(tag.length > 0 ? new String(tag, StandardCharsets.UTF_8) : null);
+        return page;
+    }
+
+    /**
+     * The logged pages, oldest first, up to the first record that is torn or
+     * fails its checksum.
+     */
+    public synchronized List<WebPage> read() throws IOException
+    {
+        List<WebPage> pages = new ArrayList<>();
+        if (file.exists()) {
+            scan(ByteBuffer.wrap(Files.readAllBytes(file.toPath())), pages);
+        }
+        return pages;
+    }
+
+    // Flushes appended records to the disk itself, not just the OS
+    public synchronized void sync() throws IOException
+    {
+        if (channel != null) {
+            channel.force(false);
+        }
+    }
+
+    public synchronized long size() throws IOException
+    {
+        if (channel != null)
+            return channel.size();
+        return file.exists() ? file.length() : 0;
+    }
+
+    /**
+     * Writes the index's pages and the URL table to the corpus file and drops
+     * the records that file now covers. A crash at any point leaves a corpus
+     * file and a log that replay to every page.
+     */
+    public void compactInto(File corpusFile, CorpusIndex index, UrlTable urlTable) throws IOException
+    {
+        synchronized (compactionLock) {
+            long covered;
+            synchronized (this) {
+                open();
+                channel.force(false);
+                covered = channel.position();
+            }
+
+            // Every page logged up to here was indexed before it was logged
+            CorpusFile.write(index.getPages(), urlTable, corpusFile);
+
+            synchronized (this) {
+                Path target = file.toPath();
+                Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+                try (FileChannel out = FileChannel.open(temp,
+                        StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                    ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).putInt(VERSION);
+                    header.flip();
+                    out.write(header);
+
+                    // Carry over what was appended while the corpus file was written
+                    long end = channel.position();
+                    for (long at = covered; at < end; ) {
+                        at += channel.transferTo(at, end - at, out);
+                    }
+                    out.force(false);
+                }
+                channel.close();
+                channel = null;
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+        }
+    }
+
+    // Drops every record, once they're all in a newly written corpus file
+    public synchronized void clear() throws IOException
+    {
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+        Files.deleteIfExists(file.toPath());
+    }
+
+    /**
+     * The pages with each logged page in place of the one with its URL, and
+     * logged pages with new URLs added at the end.
+     */
+    public static List<WebPage> applyTo(List<WebPage> pages, List<WebPage> logged)
+    {
+        List<WebPage> result = new ArrayList<>(pages);
+        Map<String, Integer> positions = new HashMap<>();
+        for (int i = 0; i < result.size(); i++) {
+            positions.put(result.get(i).getPageURL(), i);
+        }
+        for (WebPage page : logged) {
+            Integer i = positions.get(page.getPageURL());
+            if (i != null) {
+                result.set(i, page);
+            } else {
+                positions.put(page.getPageURL(), result.size());
+                result.add(page);
+            }
+        }
+        return result;
+    }
+}
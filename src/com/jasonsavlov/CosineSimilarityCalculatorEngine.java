@@ -1,55 +1,100 @@
 package com.jasonsavlov;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.FutureTask;
+import java.util.concurrent.RecursiveAction;
 
 /**
  * Created by jason on 4/14/16.
+ *
+ * Meant to be run on Main.computePool. The query's dot products with the
+ * whole corpus come from one pass over the inverted index; the pages it
+ * matched are then split into ranges that are scored as fork/join tasks on
+ * that pool. Every scored page is offered to a shared top-K heap, and the
+ * listener hears about the best results so far whenever a range improves them.
  */
 public class CosineSimilarityCalculatorEngine implements Runnable
 {
+    // Matching pages scored by a single task before the range is split no further
+    static final int PAGES_PER_TASK = 1024;
 
-    private final List<WebPage> listOfPages;
+    private final CorpusIndex corpus;
     private final WebPage queryPage;
     private final DownloadActionListener listener;
+    private final TopKResults topResults;
+
+    private volatile boolean cancelled = false;
 
     @Override
     public void run()
     {
-        FutureTask<CosineSimilarityCalculation.CosineSimilarityResult>[] futures = new FutureTask[listOfPages.size()];
-        List<CosineSimilarityCalculation.CosineSimilarityResult> listOfResults = new ArrayList<>();
+        TermVector query = queryPage.getTermVector();
+        // Indexes any pending pages here, once, so no range task below waits on it
+        CorpusIndex.Matches matches = corpus.matches(query);
 
-        for (int i = 0; i < futures.length; i++)
-        {
-            futures[i] = new FutureTask<>(new CosineSimilarityCalculation(listOfPages.get(i), queryPage));
-            new Thread((futures[i])).start();
-        }
+        new ScorePagesTask(matches, query.norm(), 0, matches.size()).invoke();
 
-        for (int i = 0; i < futures.length; i++)
-        {
-            try {
-                listOfResults.add(futures[i].get());
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-            } catch (ExecutionException e) {
-                e.printStackTrace();
-            }
-        }
+        if (cancelled) return;
 
-        Collections.sort(listOfResults);
+        listener.finishedCalculatingSimilarity(topResults.snapshot());
+    }
 
-        listener.finishedCalculatingSimilarity(listOfResults.get(0));
+    // Stops the query as soon as possible; the listener won't hear about it
+    public void cancel()
+    {
+        cancelled = true;
+    }
+
+    public boolean isCancelled()
+    {
+        return cancelled;
     }
 
     public CosineSimilarityCalculatorEngine(
-            List<WebPage> listOfPages, WebPage queryPage, DownloadActionListener downloadListener)
+            CorpusIndex corpus, WebPage queryPage, int k, DownloadActionListener downloadListener)
     {
-        this.listOfPages = listOfPages;
+        this.corpus = corpus;
         this.queryPage = queryPage;
+        this.topResults = new TopKResults(k);
         this.listener = downloadListener;
     }
 
+    private final class ScorePagesTask extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final CorpusIndex.Matches matches;
+        private final double queryNorm;
+        private final int from, to;
+
+        private ScorePagesTask(CorpusIndex.Matches matches, double queryNorm, int from, int to)
+        {
+            this.matches = matches;
+            this.queryNorm = queryNorm;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute()
+        {
+            if (cancelled) return;
+
+            if (to - from > PAGES_PER_TASK) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new ScorePagesTask(matches, queryNorm, from, mid),
+                        new ScorePagesTask(matches, queryNorm, mid, to));
+                return;
+            }
+
+            boolean improved = false;
+            for (int i = from; i < to; i++)
+            {
+                double similarity = matches.dots[i] / (matches.norms[i] * queryNorm);
+                improved |= topResults.offer(new CosineSimilarityCalculation.CosineSimilarityResult(matches.urls[i], similarity));
+            }
+
+            if (improved && !cancelled) {
+                listener.updatedSimilarityResults(topResults.snapshot());
+            }
+        }
+    }
 }
@@ -0,0 +1,243 @@
+package com.jasonsavlov;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The stages a crawled page goes through after it is downloaded.
+ *
+ *   fetch   the crawl scheduler's threads, which mostly wait on the network
+ *   parse   parseThreads threads (one per core) that parse the bytes with Jsoup,
+ *           pick out the links and count the terms
+ *   index   one thread that adds pages to the corpus index and queues their links
+ *
+ * Stages are joined by bounded queues, so a fetcher that gets ahead of parsing
+ * waits for room instead of piling up downloaded pages. Each stage keeps its
+ * own counts so a slow stage can be spotted from its queue depth.
+ *
+ * The parse and index threads start with the first downloaded page and run
+ * until shutdown().
+ */
+public final class CrawlPipeline
+{
+    // A downloaded page waiting to be parsed
+    private static final class Fetched
+    {
+        final PageDownloader downloader;
+        final PageFetcher.Response response;
+
+        Fetched(PageDownloader downloader, PageFetcher.Response response)
+        {
+            this.downloader = downloader;
+            this.response = response;
+        }
+    }
+
+    public static final class StageMetrics
+    {
+        private final String name;
+        private final BlockingQueue<?> queue;
+        private final AtomicInteger busy_count = new AtomicInteger();
+        private final AtomicInteger peak_depth = new AtomicInteger();
+        private final AtomicLong completed_count = new AtomicLong();
+
+        StageMetrics(String name, BlockingQueue<?> queue)
+        {
+            this.name = name;
+            this.queue = queue;
+        }
+
+        void queued()
+        {
+            peak_depth.accumulateAndGet(queue.size(), Math::max);
+        }
+
+        void started()
+        {
+            busy_count.incrementAndGet();
+        }
+
+        void finished()
+        {
+            busy_count.decrementAndGet();
+            completed_count.incrementAndGet();
+        }
+
+        public int getQueueDepth()
+        {
+            return queue.size();
+        }
+
+        public int getPeakQueueDepth()
+        {
+            return peak_depth.get();
+        }
+
+        public int getBusyCount()
+        {
+            return busy_count.get();
+        }
+
+        public long getCompletedCount()
+        {
+            return completed_count.get();
+        }
+
+        @Override
+        public String toString()
+        {
+            return name + ": " + busy_count.get() + " busy, " + queue.size() + " queued (peak "
+                    + peak_depth.get() + "), " + completed_count.get() + " done";
+        }
+    }
+
+    private final BlockingQueue<Fetched> parseQueue;
+    private final BlockingQueue<PageDownloader> indexQueue;
+    private final int parseThreads;
+
+    private final AtomicInteger fetching_count = new AtomicInteger();
+    private final AtomicLong fetched_count = new AtomicLong();
+    private final StageMetrics parseMetrics;
+    private final StageMetrics indexMetrics;
+
+    // Guarded by this
+    private boolean started = false;
+    private boolean shutdown = false;
+    private final List<Thread> threads = new ArrayList<>();
+
+    public CrawlPipeline(int queueCapacity, int parseThreads)
+    {
+        this.parseQueue = new ArrayBlockingQueue<>(queueCapacity);
+        this.indexQueue = new ArrayBlockingQueue<>(queueCapacity);
+        this.parseThreads = parseThreads;
+        this.parseMetrics = new StageMetrics("parse", parseQueue);
+        this.indexMetrics = new StageMetrics("index", indexQueue);
+    }
+
+    // Bracket a download, so the fetch stage has a count of its own
+    void fetchStarted()
+    {
+        fetching_count.incrementAndGet();
+    }
+
+    void fetchFinished()
+    {
+        fetching_count.decrementAndGet();
+        fetched_count.incrementAndGet();
+    }
+
+    /**
+     * Hands a downloaded page to the parse stage, waiting while its queue is full.
+     */
+    void parse(PageDownloader downloader, PageFetcher.Response response) throws InterruptedException
+    {
+        start();
+        parseQueue.put(new Fetched(downloader, response));
+        parseMetrics.queued();
+    }
+
+    private synchronized void start()
+    {
+        if (shutdown)
+            throw new IllegalStateException("The crawl pipeline has been shut down");
+        if (started)
+            return;
+        started = true;
+
+        JSThreadFactory parseFactory = new JSThreadFactory("parse");
+        for (int i = 0; i < parseThreads; i++) {
+            threads.add(parseFactory.newThread(this::parseLoop));
+        }
+        threads.add(new JSThreadFactory("index").newThread(this::indexLoop));
+        for (Thread thread : threads) {
+            thread.start();
+        }
+    }
+
+    /**
+     * Stops the parse and index threads once they finish the page in hand.
+     * Pages still waiting in the queues are dropped, so call it once the crawl is over.
+     */
+    public synchronized void shutdown()
+    {
+        shutdown = true;
+        for (Thread thread : threads) {
+            thread.interrupt();
+        }
+    }
+
+    private void parseLoop()
+    {
+        try {
+            while (true) {
+                Fetched next = parseQueue.take();
+                parseMetrics.started();
+                boolean parsed = false;
+                try {
+                    parsed = next.downloader.parse(next.response);
+                } catch (RuntimeException ex) {
+                    ex.printStackTrace();
+                } finally {
+                    parseMetrics.finished();
+                }
+
+                if (parsed) {
+                    indexQueue.put(next.downloader);
+                    indexMetrics.queued();
+                } else {
+                    next.downloader.finish(false);
+                }
+            }
+        } catch (InterruptedException ex) {
+            // Shutting down
+        }
+    }
+
+    private void indexLoop()
+    {
+        try {
+            while (true) {
+                PageDownloader next = indexQueue.take();
+                indexMetrics.started();
+                boolean indexed = false;
+                try {
+                    next.index();
+                    indexed = true;
+                } catch (RuntimeException ex) {
+                    ex.printStackTrace();
+                } finally {
+                    indexMetrics.finished();
+                    next.finish(indexed);
+                }
+            }
+        } catch (InterruptedException ex) {
+            // Shutting down
+        }
+    }
+
+    public int getFetchingCount()
+    {
+        return fetching_count.get();
+    }
+
+    public StageMetrics getParseMetrics()
+    {
+        return parseMetrics;
+    }
+
+    public StageMetrics getIndexMetrics()
+    {
+        return indexMetrics;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "fetch: " + fetching_count.get() + " busy, " + fetched_count.get() + " done; "
+                + parseMetrics + "; " + indexMetrics;
+    }
+}
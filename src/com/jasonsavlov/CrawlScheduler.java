@@ -0,0 +1,350 @@
+package com.jasonsavlov;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Decides which URLs get crawled and in what order.
+ *
+ * A URL is admitted only if it is within maxDepth links of a seed, the crawl
+ * hasn't reached maxPages, and its host hasn't reached maxPagesPerHost. Admitted
+ * URLs are claimed in the UrlTable and wait in a frontier that hands out the
+ * pages nearest the seeds first, oldest first within a depth.
+ *
+ * The frontier is bounded. Crawl threads never block on it, because they are
+ * the only ones draining it: when it is full, a link nearer the seeds than the
+ * deepest queued page takes that page's place, and any other link is dropped.
+ * Callers outside the crawl, like the seed loader, block in put() until there
+ * is room. The crawl is over when the frontier is empty, no page is being
+ * fetched and no page holds the crawl open, which awaitCompletion() waits for.
+ * A fetch that hands its page on to other threads holds the crawl open until
+ * the page is finished with, since the links it finds are still to come.
+ */
+public final class CrawlScheduler
+{
+    private static final class Entry
+    {
+        final String url;
+        final String host;
+        final int depth;
+        final long sequence;
+        final Runnable fetch;
+
+        Entry(String url, String host, int depth, long sequence, Runnable fetch)
+        {
+            this.url = url;
+            this.host = host;
+            this.depth = depth;
+            this.sequence = sequence;
+            this.fetch = fetch;
+        }
+    }
+
+    private static final Comparator<Entry> NEAREST_FIRST =
+            Comparator.<Entry>comparingInt(e -> e.depth).thenComparingLong(e -> e.sequence);
+
+    private final UrlTable urlTable;
+    private final int maxDepth;
+    private final int maxPages;
+    private final int maxPagesPerHost;
+    private final int capacity;
+    private final int workerCount;
+    private final ThreadFactory threadFactory;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private final Condition idle = lock.newCondition();
+
+    // Everything below is guarded by lock
+    private final TreeSet<Entry> frontier = new TreeSet<>(NEAREST_FIRST);
+    private final Map<String, Integer> hostCounts = new HashMap<>();
+    private long sequence = 0;
+    private int admitted_count = 0;
+    private int active_count = 0;
+    private int held_count = 0;
+    private int dropped_count = 0;
+    private boolean started = false;
+    private boolean shutdown = false;
+
+    public CrawlScheduler(UrlTable urlTable, int maxDepth, int maxPages, int maxPagesPerHost,
+                          int capacity, int workerCount, ThreadFactory threadFactory)
+    {
+        if (capacity < 1 || workerCount < 1)
+            throw new IllegalArgumentException("capacity and workerCount must be positive");
+
+        this.urlTable = urlTable;
+        this.maxDepth = maxDepth;
+        this.maxPages = maxPages;
+        this.maxPagesPerHost = maxPagesPerHost;
+        this.capacity = capacity;
+        this.workerCount = workerCount;
+        this.threadFactory = threadFactory;
+    }
+
+    /**
+     * Admits the URL if the limits allow it and nobody has claimed it, without
+     * ever waiting for room. Returns true if fetch will be run for it.
+     */
+    public boolean offer(String url, int depth, Runnable fetch)
+    {
+        try {
+            return admit(url, depth, fetch, false);
+        } catch (InterruptedException ex) {
+            // Can't happen without waiting
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * Like offer, but waits for room in the frontier instead of giving up.
+     */
+    public boolean put(String url, int depth, Runnable fetch) throws InterruptedException
+    {
+        return admit(url, depth, fetch, true);
+    }
+
+    private boolean admit(String url, int depth, Runnable fetch, boolean wait) throws InterruptedException
+    {
+        // Most links have been seen before, and that doesn't need the lock
+        if (depth > maxDepth || urlTable.contains(url))
+            return false;
+
+        String host = hostOf(url);
+        lock.lock();
+        try {
+            Entry victim = null;
+            while (true) {
+                if (shutdown || admitted_count >= maxPages || hostCounts.getOrDefault(host, 0) >= maxPagesPerHost) {
+                    dropped_count++;
+                    return false;
+                }
+                if (frontier.size() < capacity)
+                    break;
+                if (frontier.last().depth > depth) {
+                    victim = frontier.last();
+                    break;
+                }
+                if (!wait) {
+                    dropped_count++;
+                    return false;
+                }
+                notFull.await();
+            }
+
+            if (!urlTable.addIfAbsent(url))
+                return false;
+
+            if (victim != null) {
+                frontier.remove(victim);
+                release(victim);
+                urlTable.transition(victim.url, UrlTable.State.QUEUED, UrlTable.State.FAILED);
+                dropped_count++;
+            }
+
+            frontier.add(new Entry(url, host, depth, sequence++, fetch));
+            hostCounts.merge(host, 1, Integer::sum);
+            admitted_count++;
+
+            if (!started) {
+                startWorkers();
+            }
+            notEmpty.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Gives an entry's share of the limits back; called with lock held
+    private void release(Entry entry)
+    {
+        hostCounts.merge(entry.host, -1, Integer::sum);
+        admitted_count--;
+    }
+
+    private void startWorkers()
+    {
+        started = true;
+        for (int i = 0; i < workerCount; i++) {
+            threadFactory.newThread(this::work).start();
+        }
+    }
+
+    private void work()
+    {
+        while (true) {
+            Entry next;
+            lock.lock();
+            try {
+                while (frontier.isEmpty() && !shutdown) {
+                    notEmpty.await();
+                }
+                if (shutdown)
+                    return;
+                next = frontier.pollFirst();
+                active_count++;
+                notFull.signal();
+            } catch (InterruptedException ex) {
+                return;
+            } finally {
+                lock.unlock();
+            }
+
+            try {
+                next.fetch.run();
+            } catch (RuntimeException ex) {
+                ex.printStackTrace();
+            } finally {
+                lock.lock();
+                try {
+                    // Links found by this page were admitted before we get here
+                    active_count--;
+                    signalIfIdle();
+                } finally {
+                    lock.unlock();
+                }
+            }
+        }
+    }
+
+    /**
+     * Keeps the crawl from counting as complete until releaseHold() is called.
+     */
+    public void holdOpen()
+    {
+        lock.lock();
+        try {
+            held_count++;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void releaseHold()
+    {
+        lock.lock();
+        try {
+            held_count--;
+            signalIfIdle();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Called with lock held
+    private void signalIfIdle()
+    {
+        if (active_count == 0 && held_count == 0 && frontier.isEmpty()) {
+            idle.signalAll();
+        }
+    }
+
+    /**
+     * Waits until every admitted page has been fetched and nothing holds the crawl open.
+     */
+    public void awaitCompletion() throws InterruptedException
+    {
+        lock.lock();
+        try {
+            while (active_count > 0 || held_count > 0 || !frontier.isEmpty()) {
+                idle.await();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Like awaitCompletion, but gives up after the timeout and returns false
+    public boolean awaitCompletion(long timeout, TimeUnit unit) throws InterruptedException
+    {
+        long nanos = unit.toNanos(timeout);
+        lock.lock();
+        try {
+            while (active_count > 0 || held_count > 0 || !frontier.isEmpty()) {
+                if (nanos <= 0)
+                    return false;
+                nanos = idle.awaitNanos(nanos);
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stops admitting URLs, drops whatever is still queued and lets the crawl
+     * threads exit once their current page is done.
+     */
+    public void shutdown()
+    {
+        lock.lock();
+        try {
+            shutdown = true;
+            for (Entry entry : frontier) {
+                urlTable.transition(entry.url, UrlTable.State.QUEUED, UrlTable.State.FAILED);
+            }
+            frontier.clear();
+            notEmpty.signalAll();
+            notFull.signalAll();
+            signalIfIdle();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getAdmittedCount()
+    {
+        lock.lock();
+        try {
+            return admitted_count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getDroppedCount()
+    {
+        lock.lock();
+        try {
+            return dropped_count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // URLs waiting in the frontier to be fetched
+    public int getFrontierDepth()
+    {
+        lock.lock();
+        try {
+            return frontier.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getMaxDepth()
+    {
+        return maxDepth;
+    }
+
+    static String hostOf(String url)
+    {
+        try {
+            String host = new URI(url).getHost();
+            return host != null ? host.toLowerCase(Locale.ROOT) : "";
+        } catch (URISyntaxException ex) {
+            return "";
+        }
+    }
+}
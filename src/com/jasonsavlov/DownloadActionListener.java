@@ -1,10 +1,17 @@
 package com.jasonsavlov;
 
+import java.util.List;
+
 /**
  * Created by jason on 4/14/16.
  */
 public interface DownloadActionListener
 {
     void finishedDownloadingContent(WebPage page);
-    void finishedCalculatingSimilarity(CosineSimilarityCalculation.CosineSimilarityResult result);
+
+    // The best matches found so far, most similar first; more pages may still be scoring
+    void updatedSimilarityResults(List<CosineSimilarityCalculation.CosineSimilarityResult> bestSoFar);
+
+    // The final top matches, most similar first; empty if no page shares a word with the query
+    void finishedCalculatingSimilarity(List<CosineSimilarityCalculation.CosineSimilarityResult> topResults);
 }
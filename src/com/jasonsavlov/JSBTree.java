@@ -1,14 +1,13 @@
 package com.jasonsavlov;
 
-import com.sun.istack.internal.NotNull;
-
 import java.io.*;
 import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
 import java.util.*;
-import java.util.concurrent.*;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * JSBtree.java
@@ -17,241 +16,416 @@ import java.util.concurrent.locks.ReentrantLock;
  * Written by Jason Savlov.
  * Written using the guidance of the BTree.java found at:
  * http://algs4.cs.princeton.edu/code/edu/princeton/cs/algs4/BTree.java
+ *
+ * Values live in the leaves, and the order (keys per node) is set per tree.
+ * Each node carries its own latch so that work on different subtrees can
+ * proceed in parallel.
  */
 
 public class JSBTree
 {
 
-    private static final int MAX_CHILDREN = 4;
+    // Bounds on the number of keys a single node may hold
+    public static final int DEFAULT_ORDER = 128;
+    public static final int MIN_ORDER = 4;
+    public static final int MAX_ORDER = 1024;
+
+    private final int order;
 
-    private Node root;
-    private int height;
-    private int node_count;
+    private volatile Node root;
+    private volatile int height;
+    private final AtomicInteger node_count = new AtomicInteger();
 
-    private final Lock mLock = new ReentrantLock();
+    // Guards the root pointer. Writers only hold it while the root itself might split.
+    private final ReentrantReadWriteLock rootLatch = new ReentrantReadWriteLock();
 
 
+    /*
+        Nodes are latched individually. Readers crab down with shared latches, releasing
+        the parent once the child is held. Writers first try the same descent and take an
+        exclusive latch on the leaf only; if the leaf is full they restart and crab down
+        with exclusive latches, releasing every ancestor above the deepest node that has
+        room for one more key.
+     */
     private static final class Node
     {
-        private int child_count; // count of children
-        private Entry[] children = new Entry[MAX_CHILDREN];
-
-        private Node(int k)
+        private final ReentrantReadWriteLock latch = new ReentrantReadWriteLock();
+        private final boolean leaf;
+        private int key_count;
+        private final String[] keys;
+        private final WordNode[] values;   // leaves only
+        private final Node[] children;     // internal nodes only, key_count + 1 in use
+        private Node next;                 // right sibling, leaves only
+
+        private Node(int order, boolean leaf)
         {
-            child_count = k;
+            this.leaf = leaf;
+            this.keys = new String[order];
+            this.values = leaf ? new WordNode[order] : null;
+            this.children = leaf ? null : new Node[order + 1];
         }
     }
 
-    private static class Entry
+    public JSBTree()
     {
-        private Comparable key;
-        private Object value;
-        private Node next;
+        this(DEFAULT_ORDER);
+    }
 
-        public Entry(Comparable key, Object value, Node next)
-        {
-            this.key = key;
-            this.value = value;
-            this.next = next;
+    public JSBTree(int order)
+    {
+        if (order < MIN_ORDER || order > MAX_ORDER) {
+            throw new IllegalArgumentException("Order must be between " + MIN_ORDER + " and " + MAX_ORDER + ": " + order);
         }
+        this.order = order;
+        this.root = new Node(order, true);
     }
 
-    public JSBTree()
+    public int order()
     {
-        root = new Node(0);
+        return order;
     }
 
-    public synchronized boolean isEmpty()
+    public boolean isEmpty()
     {
         return size() == 0;
     }
 
     public int size()
     {
-        try {
-            mLock.lock();
-            return node_count;
-        } finally {
-            mLock.unlock();
-        }
+        return node_count.get();
     }
 
     public int height()
     {
-        try {
-            mLock.lock();
-            return height;
-        } finally {
-            mLock.unlock();
-        }
+        return height;
     }
 
-    private WordNode search(Node x, String key, int ht)
+    public WordNode get(String k)
     {
-        Entry[] children = x.children;
-
-        try {
-            mLock.lock();
-            // Do we have an external node?
-            if (ht == 0) {
-                for (int i = 0; i < x.child_count; i++) {
-                    if (equal(key, children[i].key)) {
-                        return (WordNode) children[i].value;
-                    }
-                }
-            }
+        if (k == null)
+            throw new NullPointerException("The key must not be null.");
 
-            // If not, we have an internal node!
-            else {
-                for (int i = 0; i < x.child_count; i++) {
-                    if ((i+1) == x.child_count || lessThan(key, children[i+1].key)) {
-                        return search(children[i].next, key, ht - 1);
-                    }
-                }
-            }
+        Node x = latchRootShared();
+        while (!x.leaf) {
+            Node child = x.children[childIndex(x, k)];
+            child.latch.readLock().lock();
+            x.latch.readLock().unlock();
+            x = child;
+        }
 
-            // all else, return nothin'.
-            return null;
+        try {
+            int i = indexOf(x, k);
+            return i >= 0 ? x.values[i] : null;
         } finally {
-            mLock.unlock();
+            x.latch.readLock().unlock();
         }
     }
 
-    public WordNode get(String k)
+    public void add(String key)
     {
-        if (k == null)
-            throw new NullPointerException("The key must not be null.");
-
-        return search(root, k, height);
+        increment(key, 1);
     }
 
-    public void add(String key)
+    /*
+        Finds or inserts the key and adds delta to its frequency in a single descent.
+        The update happens under the leaf's exclusive latch, so concurrent increments
+        of the same word are never lost. Returns the new frequency.
+     */
+    public int increment(String key, int delta)
     {
-        WordNode existing;
-        try {
-            mLock.lock();
-            existing = get(key);
+        if (key == null) {
+            throw new NullPointerException("The key must not be null.");
+        }
 
-            if (existing != null) {
-                // It already exists.. increment the frequency and move on
-                existing.frequency++;
-                return;
-            }
+        return insert(key, null, delta).frequency;
+    }
 
-            put(key, new WordNode(key));
-        } finally {
-            mLock.unlock();
+    public void put(String key, WordNode value)
+    {
+        if (key == null) {
+            throw new NullPointerException("The key must not be null.");
         }
+
+        insert(key, value, 0);
     }
 
-    public void put(String key, WordNode value)
+    /*
+        Maps key to value, or, when value is null, adds delta to the frequency of the
+        existing node (creating it with a frequency of delta if there isn't one).
+        Returns the node now mapped to the key.
+     */
+    private WordNode insert(String key, WordNode value, int delta)
     {
+        Node leaf = latchLeafExclusive(key);
         try {
-            mLock.lock();
-            if (key == null) {
-                throw new NullPointerException("The key must not be null.");
+            int i = indexOf(leaf, key);
+            if (i >= 0) {
+                return update(leaf, i, value, delta);
+            }
+            if (leaf.key_count < order) {
+                WordNode created = value != null ? value : new WordNode(key, delta);
+                insertIntoLeaf(leaf, -i - 1, key, created);
+                node_count.incrementAndGet();
+                return created;
             }
+        } finally {
+            leaf.latch.writeLock().unlock();
+        }
 
-            Node u = insert(root, key, value, height);
-            node_count++;
-            if (u == null)
-                return;
+        // The leaf is full, so this insert may split nodes all the way up
+        return insertPessimistic(key, value, delta);
+    }
 
-            // split it if needed
-            Node t = new Node(2);
-            t.children[0] = new Entry(root.children[0].key, null, root);
-            t.children[1] = new Entry(u.children[0].key, null, u);
-            root = t;
-            height++;
-        } finally {
-            mLock.unlock();
+    // Applies a put or an increment to an entry that is already in an exclusively latched leaf
+    private static WordNode update(Node leaf, int i, WordNode value, int delta)
+    {
+        if (value != null) {
+            leaf.values[i] = value;
+            return value;
         }
+        leaf.values[i].frequency += delta;
+        return leaf.values[i];
     }
 
-    private Node insert(Node node, String key, WordNode value, int ht)
+    private WordNode insertPessimistic(String key, WordNode value, int delta)
     {
+        List<Node> path = new ArrayList<>();
+        boolean holdingRoot = true;
+        rootLatch.writeLock().lock();
+
         try {
-            mLock.lock();
-            int i;
-            Entry e = new Entry(key, value, null);
-
-            // external
-            if (ht == 0) {
-                for (i = 0; i < node.child_count; i++) {
-                    if (lessThan(key, node.children[i].key))
-                        break;
-                }
+            Node x = root;
+            x.latch.writeLock().lock();
+            path.add(x);
+            if (x.key_count < order) {
+                rootLatch.writeLock().unlock();
+                holdingRoot = false;
             }
 
-            // internal
-            else {
-                for (i = 0; i < node.child_count; i++) {
-                    if (((i + 1) == node.child_count) || lessThan(key, node.children[i].key)) {
-                        Node r = insert(node.children[i++].next, key, value, ht - 1);
-                        if (r == null) {
-                            return null;
-                        }
-                        e.key = r.children[0].key;
-                        e.next = r;
-                        break;
+            while (!x.leaf) {
+                Node child = x.children[childIndex(x, key)];
+                child.latch.writeLock().lock();
+                if (child.key_count < order) {
+                    // The child can absorb a split below it, so nothing above it will change
+                    unlatchExclusive(path);
+                    if (holdingRoot) {
+                        rootLatch.writeLock().unlock();
+                        holdingRoot = false;
                     }
                 }
+                path.add(child);
+                x = child;
             }
 
-            for (int j = node.child_count; j > i; j--) {
-                node.children[j] = node.children[j - 1];
+            int i = indexOf(x, key);
+            if (i >= 0) {
+                return update(x, i, value, delta);
             }
-            node.children[i] = e;
-            node.child_count++;
-            if (node.child_count < MAX_CHILDREN)
-                return null;
-            else
-                return split(node);
+
+            WordNode created = value != null ? value : new WordNode(key, delta);
+            node_count.incrementAndGet();
+            if (x.key_count < order) {
+                insertIntoLeaf(x, -i - 1, key, created);
+                return created;
+            }
+
+            Node right = splitLeaf(x, -i - 1, key, created);
+            String separator = right.keys[0];
+
+            // Push the separator up through the latched ancestors
+            for (int level = path.size() - 2; right != null; level--) {
+                if (level < 0) {
+                    // We split the root, so grow the tree by one level
+                    Node t = new Node(order, false);
+                    t.keys[0] = separator;
+                    t.children[0] = root;
+                    t.children[1] = right;
+                    t.key_count = 1;
+                    root = t;
+                    height++;
+                    break;
+                }
+
+                Node parent = path.get(level);
+                int pos = childIndex(parent, separator);
+                if (parent.key_count < order) {
+                    insertIntoInternal(parent, pos, separator, right);
+                    right = null;
+                } else {
+                    String[] promoted = new String[1];
+                    right = splitInternal(parent, pos, separator, right, promoted);
+                    separator = promoted[0];
+                }
+            }
+            return created;
         } finally {
-            mLock.unlock();
+            unlatchExclusive(path);
+            if (holdingRoot)
+                rootLatch.writeLock().unlock();
         }
     }
 
-    private Node split(Node n)
+    private static void insertIntoLeaf(Node leaf, int pos, String key, WordNode value)
+    {
+        System.arraycopy(leaf.keys, pos, leaf.keys, pos + 1, leaf.key_count - pos);
+        System.arraycopy(leaf.values, pos, leaf.values, pos + 1, leaf.key_count - pos);
+        leaf.keys[pos] = key;
+        leaf.values[pos] = value;
+        leaf.key_count++;
+    }
+
+    private static void insertIntoInternal(Node node, int pos, String separator, Node right)
+    {
+        System.arraycopy(node.keys, pos, node.keys, pos + 1, node.key_count - pos);
+        System.arraycopy(node.children, pos + 1, node.children, pos + 2, node.key_count - pos);
+        node.keys[pos] = separator;
+        node.children[pos + 1] = right;
+        node.key_count++;
+    }
+
+    // Splits a full leaf while inserting the new entry, returning the new right sibling
+    private Node splitLeaf(Node leaf, int pos, String key, WordNode value)
+    {
+        String[] keys = new String[order + 1];
+        WordNode[] values = new WordNode[order + 1];
+        System.arraycopy(leaf.keys, 0, keys, 0, pos);
+        System.arraycopy(leaf.values, 0, values, 0, pos);
+        keys[pos] = key;
+        values[pos] = value;
+        System.arraycopy(leaf.keys, pos, keys, pos + 1, order - pos);
+        System.arraycopy(leaf.values, pos, values, pos + 1, order - pos);
+
+        int mid = (order + 1) / 2;
+        Node right = new Node(order, true);
+        right.key_count = order + 1 - mid;
+        System.arraycopy(keys, mid, right.keys, 0, right.key_count);
+        System.arraycopy(values, mid, right.values, 0, right.key_count);
+
+        leaf.key_count = mid;
+        System.arraycopy(keys, 0, leaf.keys, 0, mid);
+        System.arraycopy(values, 0, leaf.values, 0, mid);
+        Arrays.fill(leaf.keys, mid, order, null);
+        Arrays.fill(leaf.values, mid, order, null);
+
+        right.next = leaf.next;
+        leaf.next = right;
+        return right;
+    }
+
+    // Splits a full internal node while inserting the new child, returning the new right sibling
+    private Node splitInternal(Node node, int pos, String separator, Node child, String[] promoted)
+    {
+        String[] keys = new String[order + 1];
+        Node[] children = new Node[order + 2];
+        System.arraycopy(node.keys, 0, keys, 0, pos);
+        keys[pos] = separator;
+        System.arraycopy(node.keys, pos, keys, pos + 1, order - pos);
+        System.arraycopy(node.children, 0, children, 0, pos + 1);
+        children[pos + 1] = child;
+        System.arraycopy(node.children, pos + 1, children, pos + 2, order - pos);
+
+        int mid = (order + 1) / 2;
+        promoted[0] = keys[mid];
+
+        Node right = new Node(order, false);
+        right.key_count = order - mid;
+        System.arraycopy(keys, mid + 1, right.keys, 0, right.key_count);
+        System.arraycopy(children, mid + 1, right.children, 0, right.key_count + 1);
+
+        node.key_count = mid;
+        System.arraycopy(keys, 0, node.keys, 0, mid);
+        System.arraycopy(children, 0, node.children, 0, mid + 1);
+        Arrays.fill(node.keys, mid, order, null);
+        Arrays.fill(node.children, mid + 1, order + 1, null);
+
+        return right;
+    }
+
+    private Node latchRootShared()
     {
+        rootLatch.readLock().lock();
         try {
-            mLock.lock();
-            Node t = new Node(MAX_CHILDREN / 2);
-            n.child_count = MAX_CHILDREN / 2;
-            for (int i = 0; i < MAX_CHILDREN / 2; i++) {
-                t.children[i] = n.children[MAX_CHILDREN / 2 + i];
-            }
-            return t;
+            Node x = root;
+            x.latch.readLock().lock();
+            return x;
         } finally {
-            mLock.unlock();
+            rootLatch.readLock().unlock();
         }
     }
 
-    // A method that returns a List of WordNode objects
-    public List<WordNode> treeToList()
+    // Crabs down with shared latches and returns the leaf for key, exclusively latched
+    private Node latchLeafExclusive(String key)
     {
-        ForkJoinPool workingPool = new ForkJoinPool();
+        Node x;
+        rootLatch.readLock().lock();
         try {
-            mLock.lock();
-            List<WordNode> listToReturn = new ArrayList<>();
-            TreeToListTask mainTask = new TreeToListTask(listToReturn, root);
-            return workingPool.invoke(mainTask);
+            x = root;
+            if (x.leaf)
+                x.latch.writeLock().lock();
+            else
+                x.latch.readLock().lock();
         } finally {
-            mLock.unlock();
+            rootLatch.readLock().unlock();
+        }
+
+        while (!x.leaf) {
+            Node child = x.children[childIndex(x, key)];
+            if (child.leaf)
+                child.latch.writeLock().lock();
+            else
+                child.latch.readLock().lock();
+            x.latch.readLock().unlock();
+            x = child;
         }
+        return x;
     }
 
-    public ByteArrayOutputStream serializeTree()
+    private static void unlatchExclusive(List<Node> path)
+    {
+        for (Node n : path) {
+            n.latch.writeLock().unlock();
+        }
+        path.clear();
+    }
+
+    // A method that returns a List of WordNode objects, in key order
+    public List<WordNode> treeToList()
     {
-        ForkJoinPool serializePool = new ForkJoinPool();
-        for (int i = 0; i < serializePool.getParallelism(); i++) {
-            serializePool.getFactory().newThread(serializePool).setName("Serialize-Tree-Worker-" + (i+1));
+        List<WordNode> listToReturn = new ArrayList<>(size());
+
+        Node x = latchRootShared();
+        while (!x.leaf) {
+            Node child = x.children[0];
+            child.latch.readLock().lock();
+            x.latch.readLock().unlock();
+            x = child;
         }
+
+        // Walk the leaf chain hand over hand
+        for (;;) {
+            for (int i = 0; i < x.key_count; i++) {
+                listToReturn.add(x.values[i]);
+            }
+            Node next = x.next;
+            if (next != null)
+                next.latch.readLock().lock();
+            x.latch.readLock().unlock();
+            if (next == null)
+                return listToReturn;
+            x = next;
+        }
+    }
+
+    public ByteArrayOutputStream serializeTree()
+    {
         ByteArrayOutputStream out = new ByteArrayOutputStream();
 
-        SerializeTreeTask rootTask = new SerializeTreeTask(this.root, out);
+        for (WordNode wn : treeToList()) {
+            ByteBuffer buf = wn.getSerializedNode();
+            out.write(buf.array(), 0, buf.position());
+        }
 
-        return serializePool.invoke(rootTask);
+        return out;
     }
 
     // Our set of initial bytes
@@ -266,50 +440,46 @@ public class JSBTree
     // Our set of bytes that separate the url bytes from the tree bytes
     static final byte[] urlSeparatingBytes = {2, 4, 6, 8};
 
-    public static final ByteArrayOutputStream serializeBTrees(List<WebPage> listOfPages, File file) throws IOException
+    // Writes pages in the format generateTreesFromFile reads, which CorpusFile.readLegacy still loads
+    public static final void serializeBTrees(List<WebPage> listOfPages, File file) throws IOException
     {
-        // Create the output stream
-        ByteArrayOutputStream out = new ByteArrayOutputStream();
-        DataOutputStream dataOut = new DataOutputStream(new FileOutputStream(file));
+        try (DataOutputStream dataOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            dataOut.write(initialBytes);
 
+            // Each tree is preceded by its length, so it's built up here first; one buffer does for every page
+            ByteArrayOutputStream treeStream = new ByteArrayOutputStream();
+            for (WebPage workingPage : listOfPages)
+            {
+                dataOut.writeUTF(workingPage.getPageURL());
 
-        // Add the bytes to the output stream
-        dataOut.write(initialBytes);
-        ByteBuffer buf;
+                treeStream.reset();
+                serializeTermVector(workingPage.getTermVector(), treeStream);
+                dataOut.writeInt(treeStream.size());
+                treeStream.writeTo(dataOut);
+                dataOut.write(treeSeparatingBytes);
+            }
 
-        // The loop where the action happens
-        for (WebPage workingPage : listOfPages)
-        {
-            String pageUrl = workingPage.getPageURL();
-            //int pageURL_len = pageUrl.length();
-            //dataOut.writeInt(pageURL_len);
-            //buf = ByteBuffer.allocate(4 + pageURL_len);
-            //buf.putInt(pageURL_len);
-            //buf.put(pageUrl.getBytes());
-            //out.write(buf.array());
-
-            dataOut.writeUTF(pageUrl);
-
-            ByteArrayOutputStream treeStream = workingPage.getMainTree().serializeTree();
-            int treeSize = treeStream.toByteArray().length;
-            dataOut.writeInt(treeSize);
-            //buf = ByteBuffer.allocate(4 + treeSize);
-            //buf.putInt(treeSize);
-            //out.write(buf.array());
-            //treeStream.writeTo(dataOut);
-            dataOut.write(treeStream.toByteArray());
-            dataOut.write(treeSeparatingBytes);
+            // Finally, write the terminating bytes
+            dataOut.write(terminatingBytes);
         }
+    }
 
-        // Finally, write the terminating bytes
-        dataOut.write(terminatingBytes);
-        return out;
+    // Writes a page's term vector in the same per-word format, and the same key order, as serializeTree
+    private static void serializeTermVector(TermVector vector, ByteArrayOutputStream out)
+    {
+        for (String term : CorpusFile.sortedTerms(vector)) {
+            int count = vector.countOf(Main.termDictionary.lookup(term));
+            ByteBuffer buf = new WordNode(term, count).getSerializedNode();
+            out.write(buf.array(), 0, buf.position());
+        }
     }
 
     public static final Map<String, JSBTree> generateTreesFromFile(File file) throws IOException
     {
         long current_pos = 0L; // internal position tracker to keep track of position during traversal
         Map<String, JSBTree> map = new HashMap<>();
+        List<String> urls = new ArrayList<>();
+        List<ForkJoinTask<JSBTree>> trees = new ArrayList<>();
         DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
 
         byte[] initialByteCheck = new byte[initialBytes.length];
@@ -334,14 +504,11 @@ public class JSBTree
             String pageURL = in.readUTF();
             int treeSize = in.readInt();
             byte[] treeRawBytes = new byte[treeSize];
-            in.read(treeRawBytes);
+            in.readFully(treeRawBytes);
 
-            try {
-                JSBTree generatedTree = JSBTree.getTreeFromData(treeRawBytes);
-                map.put(pageURL, generatedTree);
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-            }
+            // Reading is sequential, but each page's tree is decoded on its own task
+            urls.add(pageURL);
+            trees.add(Main.computePool.submit(() -> JSBTree.getTreeFromData(treeRawBytes)));
 
             byte[] treeSeparationCheck = new byte[treeSeparatingBytes.length];
             in.read(treeSeparationCheck);
@@ -349,242 +516,169 @@ public class JSBTree
                 throw new RuntimeException("Tree separating bytes aren't working correctly");
             }
         }
+        in.close();
 
+        for (int i = 0; i < urls.size(); i++) {
+            try {
+                map.put(urls.get(i), trees.get(i).get());
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while decoding " + urls.get(i));
+            } catch (ExecutionException ex) {
+                if (ex.getCause() instanceof IOException)
+                    throw (IOException) ex.getCause();
+                throw new RuntimeException(ex.getCause());
+            }
+        }
 
         return map;
     }
 
-    public static JSBTree getTreeFromData(byte[] data) throws FileNotFoundException, IOException, InterruptedException
+    public static JSBTree getTreeFromData(byte[] data) throws IOException
     {
-        JSBTree tree = new JSBTree();
-        //final int padding = 14;
-        final byte[] initialBytes = {41, 54, 99};
-        final byte[] terminatingBytes = {34, 36, 40};
-
-        //DataInputStream dataIn = new DataInputStream(new BufferedInputStream(new ByteArrayInputStream(data)));
-        DataInputStream dataIn = new DataInputStream(new ByteArrayInputStream(data));
-
-
-        ExecutorService pool = Executors.newFixedThreadPool(Main.NUMBER_OF_THREADS, new JSThreadFactory("treeFromData"));
-        //ForkJoinPool pool = new ForkJoinPool();
-        List<Future> futureList = new ArrayList<>();
-
-        while (dataIn.available() > 0) {
-
-            int size_cnt = 0;
-
-            ByteArrayOutputStream buf = new ByteArrayOutputStream();
-            byte[] initialByteCheck = new byte[initialBytes.length];
-
-            //dataIn.mark(4);
-            byte[] terminatingCheck = new byte[treeSeparatingBytes.length];
-            dataIn.read(terminatingCheck);
-            if (Arrays.equals(terminatingCheck, terminatingBytes)) {
-                break;
-            } else if (!Arrays.equals(terminatingCheck, initialBytes)) {
-                throw new RuntimeException("initialByteCheck failed.. bytes aren't matching up.");
-            } else {
-                buf.write(terminatingCheck);
-                size_cnt += 3;
+        // Each node is its 3 initial bytes, a length, the word, a frequency and its 3 terminating bytes
+        final int padding = 14;
+        List<WordNode> nodes = new ArrayList<>();
+        int pos = 0;
+
+        while (pos < data.length) {
+            if (data.length - pos < padding) {
+                throw new IOException("Truncated node at byte " + pos);
             }
-            //dataIn.reset();
-
-            /*
-            dataIn.read(initialByteCheck);
-            if (!Arrays.equals(initialByteCheck, initialBytes)) {
-                throw new RuntimeException("initialByteCheck failed.. bytes aren't matching up.");
-            } else {
-                buf.write(initialByteCheck);
-                size_cnt += 3;
+            int valueLength = ByteBuffer.wrap(data, pos + 3, 4).getInt();
+            int nodeLength = padding + valueLength;
+            if (valueLength < 0 || nodeLength > data.length - pos) {
+                throw new IOException("Truncated node at byte " + pos);
             }
-            */
 
-            byte b = 0;
-            while ((b = dataIn.readByte()) != -1)
-            {
-                buf.write(b);
-                size_cnt++;
-                if (b == terminatingBytes[0]) {
-                    b = dataIn.readByte();
-                    buf.write(b);
-                    size_cnt++;
-                    if (b == terminatingBytes[1]) {
-                        b = dataIn.readByte();
-                        buf.write(b);
-                        size_cnt++;
-                        if (b == terminatingBytes[2]) {
-                            break;
-                        }
-                    }
-                }
+            WordNode workingNode = WordNode.nodeFromBytes(ByteBuffer.wrap(data, pos, nodeLength).slice());
+            if (workingNode != null) {
+                nodes.add(workingNode);
             }
-            //dataIn.reset();
-            byte[] total_bytes = new byte[size_cnt];
-            //dataIn.read(total_bytes);
-
-            byte[] mbytes = buf.toByteArray();
-
-            //pool.execute(new TreeFromFileTask(tree, ByteBuffer.wrap(mbytes)));
-            futureList.add(pool.submit(new TreeFromFileTask(tree, ByteBuffer.wrap(mbytes))));
-
+            pos += nodeLength;
         }
 
-        for (Future future : futureList) {
-            try {
-                future.get();
-            } catch (ExecutionException e) {
-                e.printStackTrace();
-            }
+        // Trees are written in key order, so this is normally already sorted
+        if (!isStrictlyAscending(nodes)) {
+            nodes.sort(Comparator.comparing((WordNode wn) -> wn.value));
+            nodes = mergeDuplicates(nodes);
         }
 
-        pool.shutdown();
-
-
-        return tree;
+        return bulkLoad(nodes.iterator());
     }
 
-    private final class TreeToListTask extends RecursiveTask<List<WordNode>>
+    public static JSBTree bulkLoad(Iterator<WordNode> sortedNodes)
     {
-        private final List<WordNode> workingList;
-        private final Node assignedNode;
-
-        private TreeToListTask(@NotNull List<WordNode> list,
-                               @NotNull Node node)
-        {
-            this.workingList = list;
-            this.assignedNode = node;
-        }
-
-        @Override
-        protected List<WordNode> compute()
-        {
-            Node currentNode = assignedNode;
-            Entry[] children = currentNode.children;
-            List<TreeToListTask> nextNodes = new ArrayList<>();
-
-            // Process the children
-            for (int i = 0; i < currentNode.child_count; i++)
-            {
-                Entry e = children[i];
-                if (e.next != null) {
-                    // Go to the child node
-                    TreeToListTask nextTask = new TreeToListTask(workingList, e.next);
-                    nextNodes.add(nextTask);
-                    nextTask.fork();
-                } else {
-                    // add the word to the list
-                    workingList.add((WordNode) e.value);
-                }
-            }
-
-            // Wait for any child nodes to finish up
-            for (TreeToListTask task : nextNodes)
-            {
-                task.join();
-            }
-
-            // Return the list
-            return workingList;
-        }
+        return bulkLoad(sortedNodes, DEFAULT_ORDER);
     }
 
-    private final class SerializeTreeTask extends RecursiveTask<ByteArrayOutputStream>
+    /*
+        Builds a tree bottom-up from nodes in strictly ascending key order, in linear
+        time. Every leaf but the last is filled completely, then each level of internal
+        nodes is packed over the level below it, until a single root remains.
+     */
+    public static JSBTree bulkLoad(Iterator<WordNode> sortedNodes, int order)
     {
-        private final Node mainNode;
-        private final ByteArrayOutputStream workingStream;
-
-        private SerializeTreeTask(@NotNull Node mainNode,
-                                  @NotNull ByteArrayOutputStream workingStream)
-        {
-            this.mainNode = mainNode;
-            this.workingStream = workingStream;
+        JSBTree tree = new JSBTree(order);
+
+        List<Node> level = new ArrayList<>();
+        List<String> lowKeys = new ArrayList<>();   // smallest key under each node of the level
+        Node leaf = tree.root;
+        level.add(leaf);
+        int count = 0;
+        String previous = null;
+
+        while (sortedNodes.hasNext()) {
+            WordNode wn = sortedNodes.next();
+            if (previous != null && wn.value.compareTo(previous) <= 0) {
+                throw new IllegalArgumentException("Keys must be strictly ascending: \"" + previous + "\" then \"" + wn.value + "\"");
+            }
+            if (leaf.key_count == order) {
+                Node next = new Node(order, true);
+                leaf.next = next;
+                leaf = next;
+                level.add(leaf);
+            }
+            if (leaf.key_count == 0) {
+                lowKeys.add(wn.value);
+            }
+            leaf.keys[leaf.key_count] = wn.value;
+            leaf.values[leaf.key_count] = wn;
+            leaf.key_count++;
+            previous = wn.value;
+            count++;
         }
 
-        @Override
-        protected ByteArrayOutputStream compute()
-        {
-            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-            Node assignedNode = this.mainNode;
-            Entry[] nodeChildren = assignedNode.children;
-            List<SerializeTreeTask> nextNodes = new ArrayList<>();
-
-            ByteArrayOutputStream os = new ByteArrayOutputStream();
-
-            for (int i = 0; i < assignedNode.child_count; i++)
-            {
-                Entry e = nodeChildren[i];
-                if (e.next != null) {
-                    SerializeTreeTask nextTask = new SerializeTreeTask(e.next, workingStream);
-                    nextNodes.add(nextTask);
-                    nextTask.fork();
+        int height = 0;
+        while (level.size() > 1) {
+            List<Node> parents = new ArrayList<>();
+            List<String> parentLowKeys = new ArrayList<>();
+            Node parent = null;
+
+            for (int i = 0; i < level.size(); i++) {
+                if (parent == null || parent.key_count == order) {
+                    parent = new Node(order, false);
+                    parent.children[0] = level.get(i);
+                    parents.add(parent);
+                    parentLowKeys.add(lowKeys.get(i));
                 } else {
-                    WordNode wn = (WordNode) e.value;
-                    ByteBuffer buf = wn.getSerializedNode();
-                    try {
-                        os.write(buf.array());
-                    } catch (IOException ex) {
-                        ex.printStackTrace();
-                    }
-
-                }
-            }
-
-            for (SerializeTreeTask task : nextNodes)
-            {
-                try {
-                    task.join().writeTo(os);
-                } catch (IOException e) {
-                    e.printStackTrace();
+                    parent.keys[parent.key_count] = lowKeys.get(i);
+                    parent.key_count++;
+                    parent.children[parent.key_count] = level.get(i);
                 }
             }
 
-            try {
-                os.writeTo(outputStream);
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
-
-            return outputStream;
+            level = parents;
+            lowKeys = parentLowKeys;
+            height++;
         }
+
+        tree.root = level.get(0);
+        tree.height = height;
+        tree.node_count.set(count);
+        return tree;
     }
 
-    private static final class TreeFromFileTask implements Runnable
+    private static boolean isStrictlyAscending(List<WordNode> nodes)
     {
-        private JSBTree mainTree = null;
-        ByteBuffer mainBuffer = null;
-
-        TreeFromFileTask(@NotNull JSBTree mainTree,
-                                 @NotNull ByteBuffer mainBuffer)
-        {
-            this.mainTree = mainTree;
-            this.mainBuffer = mainBuffer;
+        for (int i = 1; i < nodes.size(); i++) {
+            if (nodes.get(i).value.compareTo(nodes.get(i - 1).value) <= 0)
+                return false;
         }
+        return true;
+    }
 
-        @Override
-        public void run()
-        {
-            WordNode workingNode = WordNode.nodeFromBytes(mainBuffer);
-
-            if (workingNode == null) return;
-
-            String keyVal = workingNode.value;
-            mainTree.put(keyVal, workingNode);
+    // Collapses runs of equal keys in a sorted list, summing their frequencies
+    private static List<WordNode> mergeDuplicates(List<WordNode> sorted)
+    {
+        List<WordNode> merged = new ArrayList<>(sorted.size());
+        for (WordNode wn : sorted) {
+            WordNode last = merged.isEmpty() ? null : merged.get(merged.size() - 1);
+            if (last != null && last.value.equals(wn.value)) {
+                last.frequency += wn.frequency;
+            } else {
+                merged.add(wn);
+            }
         }
+        return merged;
     }
 
     /*
-        Helper comparison methods
+        Helper search methods
      */
 
-    private boolean equal(Comparable key1, Comparable key2)
+    // Index of key within the node, or (-(insertion point) - 1) if it isn't there
+    private static int indexOf(Node x, String key)
     {
-        return key1.compareTo(key2) == 0;
+        return Arrays.binarySearch(x.keys, 0, x.key_count, key);
     }
 
-    private boolean lessThan(Comparable key1, Comparable key2)
+    // Index of the child subtree of an internal node that would hold key
+    private static int childIndex(Node x, String key)
     {
-        return key1.compareTo(key2) < 0;
+        int i = indexOf(x, key);
+        return i >= 0 ? i + 1 : -i - 1;
     }
 
 
-}
\ No newline at end of file
+}
@@ -116,16 +116,13 @@ public class JSHashTable implements Serializable
 
         for (Node n : this.buckets)
         {
-            if (n == null) continue;
-
-            String nKey = n.key;
-            Node cNode = n;
-            do {
-                int newHash = getHash(nKey);
-                newBuckets[newHash % newSize] = new Node(n);
-
-                cNode = cNode.next;
-            } while (cNode != null);
+            // Copy every node of the chain, chaining them again in their new buckets
+            for (Node cNode = n; cNode != null; cNode = cNode.next) {
+                int newHash = Math.abs(cNode.key.hashCode()) % newSize;
+                Node copy = new Node(cNode);
+                copy.next = newBuckets[newHash];
+                newBuckets[newHash] = copy;
+            }
         }
 
         this.buckets = newBuckets;
@@ -1,5 +1,6 @@
 package com.jasonsavlov;
 
+import java.lang.reflect.Method;
 import java.util.concurrent.ThreadFactory;
 
 /**
@@ -18,5 +19,23 @@ public class JSThreadFactory implements ThreadFactory
     {
         return new Thread(r, prefix + "_" + (++thread_count));
     }
-}
 
+    /**
+     * A factory for virtual threads named prefix_1, prefix_2, ... on JVMs that
+     * have them, or null. Looked up reflectively so this still builds and runs
+     * on JVMs from before virtual threads.
+     */
+    public static ThreadFactory virtualThreadFactory(String prefix)
+    {
+        try {
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, prefix + "_", 1L);
+            Method factory = builderClass.getMethod("factory");
+            return (ThreadFactory) factory.invoke(builder);
+        } catch (ReflectiveOperationException | RuntimeException ex) {
+            // Not there, or still a preview feature that isn't enabled
+            return null;
+        }
+    }
+}
@@ -5,6 +5,7 @@ import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.nio.charset.Charset;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
@@ -13,15 +14,55 @@ import java.util.concurrent.*;
 public class Main
 {
     public static final int NUMBER_OF_THREADS = Runtime.getRuntime().availableProcessors() * 2;
-    static final ExecutorService mainDownloadPool = Executors.newFixedThreadPool(NUMBER_OF_THREADS, new JSThreadFactory("mainDownload"));
-    static JSHashTable urlHashTable = new JSHashTable();
+    // Shared, core-sized pool for CPU-bound work: scoring similarity queries and decoding the saved corpus
+    static final ForkJoinPool computePool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+    static UrlTable urlHashTable = new UrlTable();
+    static final TermDictionary termDictionary = new TermDictionary();
+    static CorpusIndex corpusIndex = new CorpusIndex(computePool);
+    // Pages indexed since btree_a2.csc365 was last written
+    static CorpusLog corpusLog = new CorpusLog(new File("btree_a2.csc365.log"));
+    // How often the log is flushed to disk, and how big it gets before it's compacted into btree_a2.csc365
+    static final long CORPUS_LOG_SYNC_SECONDS = 5L;
+    static final long CORPUS_LOG_COMPACTION_SIZE = 16L * 1024 * 1024;
+    static final ScheduledExecutorService persistenceExecutor = Executors.newSingleThreadScheduledExecutor(new JSThreadFactory("persistence"));
+
+    // Fetch threads mostly wait on the network, so there are many more of them than cores;
+    // virtual threads make them cheap where the JVM has them
+    static final ThreadFactory FETCH_THREAD_FACTORY = JSThreadFactory.virtualThreadFactory("fetch");
+    static final int FETCH_THREADS = FETCH_THREAD_FACTORY != null ? 256 : NUMBER_OF_THREADS * 8;
+    // Downloaded pages waiting to be parsed, and parsed pages waiting to be indexed, at most
+    static final int PIPELINE_QUEUE_CAPACITY = 256;
+    static CrawlPipeline crawlPipeline = new CrawlPipeline(PIPELINE_QUEUE_CAPACITY, Runtime.getRuntime().availableProcessors());
+
+    // Crawl limits: links followed from a seed, pages in total, pages from any one host
+    static final int MAX_CRAWL_DEPTH = 2;
+    static final int MAX_CRAWL_PAGES = 2000;
+    static final int MAX_PAGES_PER_HOST = 1000;
+    // Most URLs waiting to be crawled at once
+    static final int CRAWL_FRONTIER_CAPACITY = 4096;
+    static CrawlScheduler crawlScheduler = newCrawlScheduler();
+
+    // Politeness toward each host: requests in flight at once, and requests started per second
+    static final int MAX_CONNECTIONS_PER_HOST = 4;
+    static final double MAX_REQUESTS_PER_SECOND_PER_HOST = 10.0;
+    static final Duration FETCH_TIMEOUT = Duration.ofSeconds(30);
+    static final PageFetcher pageFetcher = new PageFetcher(MAX_CONNECTIONS_PER_HOST, MAX_REQUESTS_PER_SECOND_PER_HOST, FETCH_TIMEOUT);
 
     // Thread timeout in seconds
-    static final long DOWNLOAD_THREAD_TIMEOUT = 30L;
     static final long CHECK_URL_THREAD_TIMEOUT = 60L;
-    static final TimeUnit DOWNLOAD_THREAD_TIMEOUT_UNIT = TimeUnit.SECONDS;
     static final String URL_FILE_LIST_DIRECTORY = "url_list";
 
+    // How many of the most similar pages a query reports
+    static final int SIMILAR_PAGE_COUNT = 5;
+
+    // A scheduler for a fresh crawl that claims its URLs in urlHashTable
+    static CrawlScheduler newCrawlScheduler()
+    {
+        return new CrawlScheduler(urlHashTable, MAX_CRAWL_DEPTH, MAX_CRAWL_PAGES, MAX_PAGES_PER_HOST,
+                CRAWL_FRONTIER_CAPACITY, FETCH_THREADS,
+                FETCH_THREAD_FACTORY != null ? FETCH_THREAD_FACTORY : new JSThreadFactory("fetch"));
+    }
+
     public static void main(String[] args) {
         new MainWindow();
     }
@@ -3,17 +3,15 @@ package com.jasonsavlov;
 import javax.swing.*;
 import java.awt.event.ActionEvent;
 import java.io.*;
-import java.net.HttpURLConnection;
-import java.net.MalformedURLException;
-import java.net.URL;
 import java.nio.charset.Charset;
+import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
-import java.util.Map;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 
 public class MainWindow implements DownloadActionListener
@@ -29,6 +27,10 @@ public class MainWindow implements DownloadActionListener
 
     private List<WebPage> webPageList;
 
+    // The most recently requested query and the engine scoring it, if any
+    private WebPage currentQueryPage;
+    private CosineSimilarityCalculatorEngine currentEngine;
+
     public MainWindow()
     {
         pageListModel = new DefaultListModel<>();
@@ -59,7 +61,17 @@ public class MainWindow implements DownloadActionListener
 
     private void processURL(String url)
     {
-        PageDownloader downloader = new PageDownloader(new WebPage(url), this);
+        WebPage queryPage = new WebPage(url);
+        synchronized (this) {
+            // A newer query supersedes whatever is still being scored
+            if (currentEngine != null) {
+                currentEngine.cancel();
+                currentEngine = null;
+            }
+            currentQueryPage = queryPage;
+        }
+
+        PageDownloader downloader = new PageDownloader(queryPage, this);
         Thread urlDownloadThread = new Thread(downloader);
         urlDownloadThread.start();
         this.setStatusText("Downloading page source...");
@@ -87,10 +99,46 @@ public class MainWindow implements DownloadActionListener
     }
 
     @Override
-    public void finishedCalculatingSimilarity(CosineSimilarityCalculation.CosineSimilarityResult result)
+    public void updatedSimilarityResults(List<CosineSimilarityCalculation.CosineSimilarityResult> bestSoFar)
     {
-        System.out.println("Most similar page: " + result.page);
-        this.setStatusText("Closest match: " + result.page);
+        this.setStatusText("Closest match so far: " + bestSoFar.get(0).page);
+    }
+
+    @Override
+    public void finishedCalculatingSimilarity(List<CosineSimilarityCalculation.CosineSimilarityResult> topResults)
+    {
+        refetchDamagedPages();
+
+        if (topResults.isEmpty()) {
+            this.setStatusText("No indexed page shares any words with that page");
+            return;
+        }
+        for (CosineSimilarityCalculation.CosineSimilarityResult result : topResults) {
+            System.out.println("Similar page: " + result.page + " (" + result.similarity + ")");
+        }
+        this.setStatusText("Closest match: " + topResults.get(0).page);
+    }
+
+    // Saved pages the query found damaged were indexed as empty; fetch them in full to replace them
+    private void refetchDamagedPages()
+    {
+        List<String> damagedUrls = Main.corpusIndex.takeDamagedUrls();
+        if (damagedUrls.isEmpty()) return;
+
+        new JSThreadFactory("refetch").newThread(() -> {
+            for (String url : damagedUrls) {
+                try {
+                    PageFetcher.Response response = Main.pageFetcher.fetch(url);
+                    if (response.status == 200) {
+                        new PageDownloader(new WebPage(url)).refresh(response);
+                    }
+                } catch (IOException e) {
+                    e.printStackTrace();
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }).start();
     }
 
     @Override
@@ -98,8 +146,15 @@ public class MainWindow implements DownloadActionListener
     {
         System.out.println("finishedDownloadingContent(WebPage): " + page.getPageURL());
 
-        CosineSimilarityCalculatorEngine engine = new CosineSimilarityCalculatorEngine(webPageList, page, this);
-        new Thread(engine).start();
+        CosineSimilarityCalculatorEngine engine = new CosineSimilarityCalculatorEngine(Main.corpusIndex, page, Main.SIMILAR_PAGE_COUNT, this);
+        synchronized (this) {
+            if (page != currentQueryPage) {
+                // Another URL was entered while this one downloaded
+                return;
+            }
+            currentEngine = engine;
+        }
+        Main.computePool.execute(engine);
         this.setStatusText("Calculating similarity");
     }
 
@@ -112,28 +167,33 @@ public class MainWindow implements DownloadActionListener
             // Load in the web pages
 
             String urlListFilePath;
-            String cacheFilePath = "url_cache.csc365";
             String btreeFilePath = "btree_a2.csc365";
 
-            File cacheFile = new File(cacheFilePath);
+            // Where older versions kept the visited set, before it moved into the corpus file
+            File legacyCacheFile = new File("url_cache.csc365");
             File btreeFile = new File(btreeFilePath);
 
             ExecutorService checkPagesThreadPool = Executors.newFixedThreadPool(Main.NUMBER_OF_THREADS, new JSThreadFactory("checkPage"));
 
-            List<WebPage> rootUrlList = new ArrayList<WebPage>();
+            List<WebPage> rootUrlList = Collections.synchronizedList(new ArrayList<WebPage>());
             List<PageDownloader> downloaderThreads = new ArrayList<PageDownloader>();
 
-            final boolean[] page_modifications = {false};
-
-            Map<String, JSBTree> savedTrees = null;
+            List<WebPage> savedPages = new ArrayList<>();
+            UrlTable savedUrls = null;
 
             if (btreeFile.exists()) {
                 try {
-                    System.out.println("Generating trees from file...");
-                    publish("Generating trees from file");
-                    savedTrees = JSBTree.generateTreesFromFile(btreeFile);
-                    System.out.println("Trees generated!");
-                    publish("Trees generated!");
+                    System.out.println("Loading saved pages from file...");
+                    publish("Loading saved pages from file");
+                    if (CorpusFile.isCorpusFile(btreeFile)) {
+                        CorpusFile.Contents contents = CorpusFile.load(btreeFile);
+                        savedPages = contents.pages;
+                        savedUrls = contents.urlTable;
+                    } else {
+                        savedPages = CorpusFile.readLegacy(btreeFile);
+                    }
+                    System.out.println("Saved pages loaded!");
+                    publish("Saved pages loaded!");
                 } catch (EOFException ex) {
                     ex.printStackTrace();
                 } catch (IOException e) {
@@ -143,76 +203,91 @@ public class MainWindow implements DownloadActionListener
                 }
             }
 
-            if (!cacheFile.exists()) {
-                System.out.println("No cache file found. Loading URLs from file");
-                publish("No cache file found. Loading URLs from file");
+            // Pages indexed since the file was last written, even if it never was, are in the log
+            try {
+                List<WebPage> logged = Main.corpusLog.read();
+                if (!logged.isEmpty()) {
+                    savedPages = CorpusLog.applyTo(savedPages, logged);
+                    System.out.println(logged.size() + " logged pages replayed from " + Main.corpusLog.getFile());
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+
+            // Every saved page goes into the index as it is, still undecoded; the first query decodes them
+            for (WebPage saved : savedPages) {
+                Main.corpusIndex.addPage(saved);
+                rootUrlList.add(saved);
+            }
+
+            // A corpus saved by an older version has no visited set, but its pages are still checked below
+            boolean warmStart = savedUrls != null || legacyCacheFile.exists();
+            if (savedUrls != null) {
+                Main.urlHashTable = savedUrls;
+                Main.crawlScheduler = Main.newCrawlScheduler();
+            }
+
+            // Flushes the log and folds it into a new corpus file now and then, so it never gets
+            // long to replay. Started before any page is refreshed or crawled, when the log grows.
+            Main.persistenceExecutor.scheduleWithFixedDelay(() -> {
+                try {
+                    Main.corpusLog.sync();
+                    if (Main.corpusLog.size() > Main.CORPUS_LOG_COMPACTION_SIZE) {
+                        Main.corpusLog.compactInto(btreeFile, Main.corpusIndex, Main.urlHashTable);
+                    }
+                } catch (IOException | RuntimeException e) {
+                    e.printStackTrace();
+                }
+            }, Main.CORPUS_LOG_SYNC_SECONDS, Main.CORPUS_LOG_SYNC_SECONDS, TimeUnit.SECONDS);
+
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                System.out.println("Shutdown hook started");
+                try {
+                    // Everything is already in the log; this just saves replaying it next time
+                    Main.corpusLog.compactInto(btreeFile, Main.corpusIndex, Main.urlHashTable);
+                    Files.deleteIfExists(legacyCacheFile.toPath());
+                    System.out.println("Corpus file written");
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }));
+
+            if (!warmStart) {
+                System.out.println("No saved crawl found. Loading URLs from file");
+                publish("No saved crawl found. Loading URLs from file");
             } else {
-                System.out.println("Cache file found. Will load URLs from cache file.");
-                publish("Cache file found. Loading URLs from cache");
-
-                try (
-                        InputStream file = new FileInputStream(cacheFile);
-                        InputStream buffer = new BufferedInputStream(file);
-                        ObjectInput input = new ObjectInputStream(buffer);
-                ) {
-                    Main.urlHashTable = (JSHashTable) input.readObject();
-                    List<Future> futures = new ArrayList<>();
-
-                    int threadNumber = 0;
-                    for (WebPage workingPage : Main.urlHashTable.getTableAsList())
-                    {
-                        Thread t = new Thread( () -> {
+                System.out.println("Saved crawl found. Will check saved pages for changes.");
+                publish("Saved crawl found. Checking saved pages");
+
+                try {
+                    // Ask for each saved page only if it changed since we saved it. A 200 is
+                    // indexed in place of the saved copy; a 304, or no answer, keeps the saved copy.
+                    final List<WebPage> pagesToCheck = savedPages;
+                    final AtomicInteger refreshed_count = new AtomicInteger();
+                    for (WebPage saved : pagesToCheck) {
+                        checkPagesThreadPool.execute(() -> {
                             try {
-                                URL url = new URL(workingPage.getPageURL());
-                                HttpURLConnection con = (HttpURLConnection) url.openConnection();
-                                con.setRequestMethod("GET");
-                                con.setReadTimeout(30 * 1000);
-                                con.connect();
-                                long last_modified = con.getLastModified();
-                                if (workingPage.getLastModifiedTime() != last_modified) {
-                                    page_modifications[0] = true;
+                                PageFetcher.Response response = Main.pageFetcher.fetchIfChanged(
+                                        saved.getPageURL(), saved.getLastModifiedTime(), saved.getEntityTag());
+                                if (response.status == 200
+                                        && new PageDownloader(new WebPage(saved.getPageURL())).refresh(response)) {
+                                    refreshed_count.incrementAndGet();
                                 }
-                                con.disconnect();
-                            } catch (MalformedURLException e) {
-                                e.printStackTrace();
                             } catch (IOException e) {
                                 e.printStackTrace();
+                            } catch (InterruptedException e) {
+                                Thread.currentThread().interrupt();
                             }
-
                         });
-                        t.setName("URL_check_" + (++threadNumber));
-                        checkPagesThreadPool.execute(t);
                     }
 
+                    checkPagesThreadPool.shutdown();
                     if(!checkPagesThreadPool.awaitTermination(Main.CHECK_URL_THREAD_TIMEOUT, TimeUnit.SECONDS)) {
                         System.out.println("Check URL thread pool time out. Time out set to " + Main.CHECK_URL_THREAD_TIMEOUT + " " + TimeUnit.SECONDS.name());
                         checkPagesThreadPool.shutdownNow();
                     }
-
-                /*
-                for (Future f : futures) {
-                    f.get();
-                }
-                */
-
-                    if (page_modifications[0]) {
-                        // Pages have been modified, so reload them
-                        System.out.println("We have page modifications");
-                        publish("Page modifications found -- Reloading pages");
-                        Main.urlHashTable = new JSHashTable();
-                        for (String s : savedTrees.keySet()) {
-                            WebPage wp = new WebPage(s);
-                            rootUrlList.add(wp);
-                            downloaderThreads.add(new PageDownloader(wp));
-                        }
-
-                    } else {
-
-                    }
-                } catch (IOException ex) {
-                    ex.printStackTrace();
-                } catch (ClassNotFoundException ex) {
-                    ex.printStackTrace();
+                    System.out.println(refreshed_count.get() + " of " + pagesToCheck.size() + " saved pages had changed");
+                    publish(refreshed_count.get() + " saved pages refreshed");
                 } catch (InterruptedException e) {
                     e.printStackTrace();
                 }
@@ -220,7 +295,7 @@ public class MainWindow implements DownloadActionListener
 
 
 
-            if (!cacheFile.exists()) {
+            if (!warmStart) {
                 File urlListFile = new File(Main.URL_FILE_LIST_DIRECTORY);
                 BufferedReader urlReader;
                 InputStream urlInputStream;
@@ -244,7 +319,7 @@ public class MainWindow implements DownloadActionListener
                     ex.printStackTrace();
                     System.exit(1);
                 }
-            } else if (cacheFile.exists()) {
+            } else if (warmStart) {
 
             } else {
                 System.out.println("Please provide a file name for the list of URLs to use as the first command-line argument.");
@@ -253,21 +328,26 @@ public class MainWindow implements DownloadActionListener
                 return null;
             }
 
-            if (downloaderThreads.size() > 0) {
-                for (PageDownloader pd : downloaderThreads) {
-                    Main.mainDownloadPool.execute(pd);
-                }
-
+            // Refreshed pages may have queued links too, so wait for the crawl even without seeds
+            if (downloaderThreads.size() > 0 || Main.crawlScheduler.getAdmittedCount() > 0) {
                 try {
-                    if (!Main.mainDownloadPool.awaitTermination(Main.DOWNLOAD_THREAD_TIMEOUT, Main.DOWNLOAD_THREAD_TIMEOUT_UNIT))
-                    {
-                        // if we reach this point, it timed out before completing the downloading/crawling
-                        // operation. handle it accordingly
-                        System.out.println("mainDownloadPool timed out. Timeout set to " + Main.DOWNLOAD_THREAD_TIMEOUT + " " + Main.DOWNLOAD_THREAD_TIMEOUT_UNIT);
-                        Main.mainDownloadPool.shutdownNow();
-                        checkPagesThreadPool.shutdownNow();
+                    // Seeds wait for room in the frontier rather than being dropped
+                    for (PageDownloader pd : downloaderThreads) {
+                        pd.enqueueAndWait();
                     }
 
+                    // The crawl ends on its own once its depth, page and host limits are used up
+                    while (!Main.crawlScheduler.awaitCompletion(5, TimeUnit.SECONDS)) {
+                        System.out.println("Crawling: frontier: " + Main.crawlScheduler.getFrontierDepth() + " queued; "
+                                + Main.crawlPipeline);
+                        publish("Crawling (" + Main.crawlPipeline.getIndexMetrics().getCompletedCount() + " pages indexed)");
+                    }
+                    System.out.println("Crawl finished: " + Main.crawlScheduler.getAdmittedCount() + " pages crawled, "
+                            + Main.crawlScheduler.getDroppedCount() + " links over the crawl limits");
+                    System.out.println("Crawl pipeline: " + Main.crawlPipeline);
+                    Main.crawlPipeline.shutdown();
+                    checkPagesThreadPool.shutdownNow();
+
                 } catch (InterruptedException e) {
                     e.printStackTrace();
                 }
@@ -278,58 +358,14 @@ public class MainWindow implements DownloadActionListener
             MainWindow.this.webPageList = rootUrlList;
             publish("Finished loading URLs! Ready.");
 
-            for (WebPage wp : rootUrlList) {
-                MainWindow.this.pageListModel.addElement(wp);
+            synchronized (rootUrlList) {
+                for (WebPage wp : rootUrlList) {
+                    MainWindow.this.pageListModel.addElement(wp);
+                }
             }
 
             MainWindow.this.urlListView.setModel(MainWindow.this.pageListModel);
 
-            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
-                System.out.println("Shutdown hook started");
-                Thread finalizeBTreeThread = new Thread(() -> {
-                    System.out.println("finalizeBTreeThread started");
-                    try {
-                        OutputStream file = null;
-                        try {
-                            file = new FileOutputStream(btreeFile);
-                        } catch (FileNotFoundException e) {
-                            e.printStackTrace();
-                        }
-                        OutputStream buffer = new BufferedOutputStream(file);
-                        final ByteArrayOutputStream btOutputStream = new ByteArrayOutputStream();
-                        JSBTree.serializeBTrees(rootUrlList, btreeFile);
-                        //btOutputStream.writeTo(buffer);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-                });
-
-                Thread finalizeHashTableThread = new Thread(() -> {
-                    System.out.println("finalizeHashTableThread started");
-                    try (
-                            OutputStream file = new FileOutputStream(cacheFile);
-                            OutputStream buffer = new BufferedOutputStream(file);
-                            ObjectOutput output = new ObjectOutputStream(buffer);
-                    ) {
-                        output.writeObject(Main.urlHashTable);
-                    } catch(IOException ex) {
-                        ex.printStackTrace();
-                    }
-                });
-
-                finalizeBTreeThread.start();
-                finalizeHashTableThread.start();
-
-                try {
-                    finalizeHashTableThread.join();
-                    System.out.println("finalizeHashTableThread complete");
-                    finalizeBTreeThread.join();
-                    System.out.println("finalizeBTreeThread complete");
-                } catch (InterruptedException ex) {
-                    ex.printStackTrace();
-                }
-            }));
-
             return null;
         }
 
@@ -1,59 +1,144 @@
 package com.jasonsavlov;
 
 
-import org.jsoup.Connection;
 import org.jsoup.Jsoup;
 import org.jsoup.nodes.Document;
 import org.jsoup.nodes.Element;
 import org.jsoup.select.Elements;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
-import java.util.concurrent.RejectedExecutionException;
 
 public class PageDownloader implements Runnable
 {
     private final WebPage mainPage;
     DownloadActionListener listener;
 
+    // How many links away from a seed or query page this page was found
+    private final int depth;
+    // The crawl this page belongs to
+    private final CrawlScheduler scheduler = Main.crawlScheduler;
+
     private static final String DATE_FORMAT = "EEE, dd MMM yyyy HH:mm:ss zzz";
 
     @Override
     public void run()
     {
-        Document document;
-        Connection connection;
+        if (listener != null) {
+            // Query pages skip the crawl pipeline, so they never wait behind it
+            PageFetcher.Response response = download();
+            if (response != null && parse(response)) {
+                index();
+            }
+            return;
+        }
+
+        // Crawled pages are only fetched by whoever claimed them
+        if (!Main.urlHashTable.transition(mainPage.getPageURL(), UrlTable.State.QUEUED, UrlTable.State.FETCHING)) {
+            return;
+        }
+        // The crawl isn't over until this page has been through every stage
+        scheduler.holdOpen();
+
+        Main.crawlPipeline.fetchStarted();
+        PageFetcher.Response response;
         try {
-            connection = Jsoup.connect(mainPage.getPageURL());
+            response = download();
+        } finally {
+            Main.crawlPipeline.fetchFinished();
+        }
+        if (response == null) {
+            finish(false);
+            return;
+        }
 
-            try {
-                document = connection.get();
-            } catch (org.jsoup.HttpStatusException ex) {
-                System.out.println("HttpStatusException. Page: " + mainPage.toString());
-                //ex.printStackTrace();
-                return;
-            } catch (org.jsoup.UnsupportedMimeTypeException ex) {
-                System.out.println("UnsupportedMimeTypeException. Page: " + mainPage.toString());
-                //ex.printStackTrace();
-                return;
-            } catch (java.net.SocketTimeoutException ex) {
-                System.out.println("SocketTimeoutException. Page: " + mainPage.toString());
-                // TODO: add page timeout handling
-                return;
-            }
-            Main.urlHashTable.add(mainPage.getPageURL(), mainPage);
+        try {
+            Main.crawlPipeline.parse(this, response);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            finish(false);
+        }
+    }
+
+    // Records how a crawled page's trip through the pipeline ended
+    void finish(boolean indexed)
+    {
+        Main.urlHashTable.transition(mainPage.getPageURL(), UrlTable.State.FETCHING,
+                indexed ? UrlTable.State.DONE : UrlTable.State.FAILED);
+        scheduler.releaseHold();
+    }
+
+    /**
+     * Hands this downloader to the crawl scheduler without waiting. Returns false,
+     * without queueing anything, if the URL was already claimed or the crawl's
+     * limits rule it out.
+     */
+    public boolean enqueue()
+    {
+        return scheduler.offer(mainPage.getPageURL(), depth, this);
+    }
+
+    // Like enqueue, but waits for room in the crawl frontier
+    public boolean enqueueAndWait() throws InterruptedException
+    {
+        return scheduler.put(mainPage.getPageURL(), depth, this);
+    }
+
+    // Downloads the page, returning null unless it came back as HTML
+    private PageFetcher.Response download()
+    {
+        PageFetcher.Response response;
+        try {
+            response = Main.pageFetcher.fetch(mainPage.getPageURL());
+        } catch (java.net.http.HttpTimeoutException ex) {
+            System.out.println("HttpTimeoutException. Page: " + mainPage.toString());
+            // TODO: add page timeout handling
+            return null;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
 
-            // Are there any other exceptions to be handled with network IO?
+        if (response.status != 200) {
+            System.out.println("HTTP status " + response.status + ". Page: " + mainPage.toString());
+            return null;
+        }
+        if (!response.isHtml()) {
+            System.out.println("Unsupported content type. Page: " + mainPage.toString());
+            return null;
+        }
+        return response;
+    }
 
-            String lastModifiedStr = connection.response().header("Last-Modified");
+    // Parses the page, picks out its links and counts its terms, returning true if it all worked
+    boolean parse(PageFetcher.Response response)
+    {
+        Document document;
+        try {
+            // Without a charset in the headers Jsoup looks for one in the page itself
+            document = Jsoup.parse(new ByteArrayInputStream(response.body), response.charset(), response.uri.toString());
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+
+        String lastModifiedStr = response.header("Last-Modified");
 
-            SimpleDateFormat format = new SimpleDateFormat(DATE_FORMAT);
-            Date lastModifiedDate;
+        SimpleDateFormat format = new SimpleDateFormat(DATE_FORMAT);
+        Date lastModifiedDate;
 
+        if (lastModifiedStr == null) {
+            // Unknown, so revalidating the page relies on its ETag alone
+            lastModifiedDate = new Date(0L);
+        } else {
             try {
                 lastModifiedDate = format.parse(lastModifiedStr);
             } catch (ParseException e) {
@@ -61,73 +146,93 @@ public class PageDownloader implements Runnable
                 System.out.println("Setting lastModifiedDate to an empty Date object");
                 lastModifiedDate = new Date();
             }
+        }
 
 
 
-            Elements links = document.select("a");
-            List<WebPage> linkList = new ArrayList<WebPage>();
-            for (Element e : links) {
-                String linkURL = e.attr("abs:href");
-                linkURL = linkURL.split("#")[0];
-                if (!linkURL.startsWith("http")) {
-                    continue;
-                }
-                linkList.add(new WebPage(linkURL, mainPage.getMainTree()));
+        Elements links = document.select("a");
+        List<WebPage> linkList = new ArrayList<WebPage>();
+        for (Element e : links) {
+            String linkURL = e.attr("abs:href");
+            if (!linkURL.startsWith("http")) {
+                continue;
             }
+            // One spelling per page, so the corpus doesn't hold duplicates
+            linkURL = UrlCanonicalizer.canonicalize(linkURL);
+            linkList.add(new WebPage(linkURL));
+        }
 
-            // get the words from the body
-            String parsedBody = document.body().text();
-
-            // split up the body
-            String[] words = parsedBody.split("\\s+");
+        // get the words from the body
+        String parsedBody = document.body().text();
 
-            // Get only alphanumeric words from the body, make all lowercase
-            for (int i = 0; i < words.length; i++) {
-                words[i] = words[i].replaceAll("[^a-zA-Z]", "").toLowerCase();
-            }
+        // Count the lowercase alphabetic words of the body
+        new Tokenizer().countTerms(parsedBody, Main.termDictionary, mainPage.getTermFrequencies());
+        mainPage.buildTermVector();
 
-            JSBTree tree = mainPage.getMainTree();
-
-            for (String s : words) {
-                tree.add(s);
-            }
 
 
+        mainPage.setPageBodyText(parsedBody);
+        mainPage.setLastModifiedTime(lastModifiedDate.getTime());
+        mainPage.setEntityTag(response.header("ETag"));
+        mainPage.setListOfLinks(linkList);
+        return true;
+    }
 
-            mainPage.setPageBodyText(parsedBody);
-            mainPage.setLastModifiedTime(lastModifiedDate.getTime());
-            mainPage.setListOfLinks(linkList);
+    /**
+     * Indexes a new version of a saved page, from the 200 answer to a
+     * conditional request for it, on the calling thread.
+     */
+    boolean refresh(PageFetcher.Response response)
+    {
+        if (response.status != 200 || !response.isHtml() || !parse(response)) {
+            return false;
+        }
+        index();
+        return true;
+    }
 
-            for (WebPage wp : linkList) {
-                if (Main.urlHashTable.contains(wp.getPageURL())) {
-                    continue;
-                }
-                try {
-                    Main.mainDownloadPool.submit(new PageDownloader(wp));
-                } catch(RejectedExecutionException ex) {
-                    new Thread(new PageDownloader(wp), "comparison_downlaod");
-                }
+    // Queues the page's links and hands the page to whoever needs it
+    void index()
+    {
+        // Only a crawled page's links, that nobody has claimed yet and the crawl limits allow, get queued
+        if (listener == null && depth < scheduler.getMaxDepth()) {
+            for (WebPage wp : mainPage.getListOfLinks()) {
+                new PageDownloader(wp, depth + 1).enqueue();
             }
+        }
 
-            System.out.println("Page " + mainPage.getPageURL() + ": " + Long.toString(mainPage.getLastModifiedTime()));
+        System.out.println("Page " + mainPage.getPageURL() + ": " + Long.toString(mainPage.getLastModifiedTime()));
 
-            if (listener != null) {
-                listener.finishedDownloadingContent(this.mainPage);
+        // Query pages go back to whoever asked for them; crawled pages join the corpus
+        if (listener != null) {
+            listener.finishedDownloadingContent(this.mainPage);
+        } else {
+            Main.corpusIndex.replacePage(this.mainPage);
+            // Logged once indexed, so it survives a crash and the next compaction picks it up
+            try {
+                Main.corpusLog.append(this.mainPage);
+            } catch (IOException e) {
+                e.printStackTrace();
             }
-        } catch (IOException e) {
-            e.printStackTrace();
         }
     }
 
     public PageDownloader(WebPage page)
+    {
+        this(page, 0);
+    }
+
+    public PageDownloader(WebPage page, int depth)
     {
         this.mainPage = page;
+        this.depth = depth;
     }
 
     public PageDownloader(WebPage page, DownloadActionListener listener)
     {
         this.mainPage = page;
         this.listener = listener;
+        this.depth = 0;
     }
 
 }
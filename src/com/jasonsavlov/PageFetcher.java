@@ -0,0 +1,177 @@
+package com.jasonsavlov;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fetches pages politely over one shared, keep-alive HTTP client.
+ *
+ * Each host gets its own queue: at most maxConnectionsPerHost requests to it
+ * are in flight at once, waiting threads are let in first come first served,
+ * and requests to it start no faster than maxRequestsPerSecond. Connections
+ * are pooled by the client and reused across pages, over HTTP/2 where the
+ * server supports it.
+ */
+public final class PageFetcher
+{
+    private static final String USER_AGENT = "csc365-crawler";
+
+    public static final class Response
+    {
+        public final int status;
+        // Where the page ended up after redirects
+        public final URI uri;
+        public final HttpHeaders headers;
+        public final byte[] body;
+
+        Response(int status, URI uri, HttpHeaders headers, byte[] body)
+        {
+            this.status = status;
+            this.uri = uri;
+            this.headers = headers;
+            this.body = body;
+        }
+
+        public String header(String name)
+        {
+            return headers.firstValue(name).orElse(null);
+        }
+
+        // The charset named in Content-Type, or null to let the parser find it in the page
+        public String charset()
+        {
+            String type = header("Content-Type");
+            if (type == null)
+                return null;
+            for (String param : type.split(";")) {
+                param = param.trim();
+                if (param.regionMatches(true, 0, "charset=", 0, 8)) {
+                    return param.substring(8).replace("\"", "").trim();
+                }
+            }
+            return null;
+        }
+
+        // A conditional request's answer that the copy we have is still current
+        public boolean isNotModified()
+        {
+            return status == 304;
+        }
+
+        public boolean isHtml()
+        {
+            String type = header("Content-Type");
+            return type != null && type.toLowerCase(Locale.ROOT).contains("html");
+        }
+    }
+
+    private static final class HostQueue
+    {
+        final Semaphore connections;
+        private long next_request_nanos = System.nanoTime();
+
+        HostQueue(int maxConnections)
+        {
+            connections = new Semaphore(maxConnections, true);
+        }
+
+        // Reserves the next start time for this host and sleeps until it comes
+        void awaitTurn(long intervalNanos) throws InterruptedException
+        {
+            long wait;
+            synchronized (this) {
+                long now = System.nanoTime();
+                long start = Math.max(now, next_request_nanos);
+                next_request_nanos = start + intervalNanos;
+                wait = start - now;
+            }
+            if (wait > 0) {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            }
+        }
+    }
+
+    private final HttpClient client;
+    private final int maxConnectionsPerHost;
+    private final long requestIntervalNanos;
+    private final Duration requestTimeout;
+    private final ConcurrentHashMap<String, HostQueue> hosts = new ConcurrentHashMap<>();
+
+    public PageFetcher(int maxConnectionsPerHost, double maxRequestsPerSecond, Duration requestTimeout)
+    {
+        if (maxConnectionsPerHost < 1 || maxRequestsPerSecond <= 0)
+            throw new IllegalArgumentException("Per-host limits must be positive");
+
+        this.maxConnectionsPerHost = maxConnectionsPerHost;
+        this.requestIntervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / maxRequestsPerSecond);
+        this.requestTimeout = requestTimeout;
+        this.client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .connectTimeout(requestTimeout)
+                .build();
+    }
+
+    /**
+     * GETs the URL once it is this host's turn. Any status comes back as a
+     * Response; only failures to get one at all throw.
+     */
+    public Response fetch(String url) throws IOException, InterruptedException
+    {
+        return fetchIfChanged(url, 0L, null);
+    }
+
+    /**
+     * A conditional GET: the server answers 304 with no body if the page is
+     * unchanged since lastModified (if nonzero) and still matches entityTag
+     * (if not null).
+     */
+    public Response fetchIfChanged(String url, long lastModified, String entityTag) throws IOException, InterruptedException
+    {
+        URI uri;
+        try {
+            uri = URI.create(url);
+        } catch (IllegalArgumentException ex) {
+            throw new IOException("Bad URL: " + url, ex);
+        }
+        if (uri.getHost() == null)
+            throw new IOException("URL has no host: " + url);
+
+        HostQueue host = hosts.computeIfAbsent(uri.getHost().toLowerCase(Locale.ROOT),
+                h -> new HostQueue(maxConnectionsPerHost));
+        host.connections.acquire();
+        try {
+            host.awaitTurn(requestIntervalNanos);
+            HttpRequest.Builder request = HttpRequest.newBuilder(uri)
+                    .timeout(requestTimeout)
+                    .header("User-Agent", USER_AGENT)
+                    .GET();
+            if (lastModified > 0) {
+                request.header("If-Modified-Since", DateTimeFormatter.RFC_1123_DATE_TIME.format(
+                        Instant.ofEpochMilli(lastModified).atZone(ZoneOffset.UTC)));
+            }
+            if (entityTag != null) {
+                request.header("If-None-Match", entityTag);
+            }
+            HttpResponse<byte[]> response = client.send(request.build(), HttpResponse.BodyHandlers.ofByteArray());
+            return new Response(response.statusCode(), response.uri(), response.headers(), response.body());
+        } catch (IllegalArgumentException ex) {
+            // URI.create accepts some URLs, like unsupported schemes, that the client won't
+            throw new IOException("Can't fetch " + url, ex);
+        } finally {
+            host.connections.release();
+        }
+    }
+}
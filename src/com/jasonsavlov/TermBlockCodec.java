@@ -0,0 +1,218 @@
+package com.jasonsavlov;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.CRC32C;
+
+/**
+ * The compact encoding of one page's terms and counts.
+ *
+ *   per term  length of the prefix shared with the previous term, length of the
+ *             rest, the rest in UTF-8, the count
+ *   trailer   CRC-32C of everything before it
+ *
+ * Terms are written in ascending order, so neighbours share long prefixes, and
+ * every length and count is a varint, so a typical term costs its new suffix
+ * plus three bytes. Encoding and decoding reuse the codec's buffers, and a
+ * decoded term only becomes a String if the dictionary hasn't seen it before.
+ *
+ * A codec is not thread-safe; get() hands each thread its own.
+ */
+final class TermBlockCodec
+{
+    private static final int CHECKSUM_SIZE = 4;
+    private static final int MAX_VARINT_SIZE = 5;
+    private static final int INITIAL_SCRATCH_SIZE = 16 * 1024;
+
+    private static final ThreadLocal<TermBlockCodec> CODECS = ThreadLocal.withInitial(TermBlockCodec::new);
+
+    private final CRC32C crc = new CRC32C();
+    private final AsciiTerm asciiTerm = new AsciiTerm();
+    private ByteBuffer scratch = ByteBuffer.allocateDirect(INITIAL_SCRATCH_SIZE);
+    private byte[] previous = new byte[64];
+    private byte[] current = new byte[64];
+
+    static TermBlockCodec get()
+    {
+        return CODECS.get();
+    }
+
+    /**
+     * Encodes the vector's terms, in ascending order, into a new buffer sized to fit.
+     */
+    ByteBuffer encode(TermVector vector, TermDictionary dictionary)
+    {
+        String[] terms = CorpusFile.sortedTerms(vector);
+        ByteBuffer out = scratch;
+        out.clear();
+
+        int previousLength = 0;
+        for (String term : terms) {
+            int length = toUtf8(term);
+            int shared = 0;
+            int most = Math.min(length, previousLength);
+            while (shared < most && previous[shared] == current[shared]) {
+                shared++;
+            }
+
+            out = ensureRemaining(out, 3 * MAX_VARINT_SIZE + length - shared);
+            putVarint(out, shared);
+            putVarint(out, length - shared);
+            out.put(current, shared, length - shared);
+            putVarint(out, vector.countOf(dictionary.lookup(term)));
+
+            byte[] swap = previous;
+            previous = current;
+            current = swap;
+            previousLength = length;
+        }
+
+        ByteBuffer body = out.duplicate();
+        body.flip();
+        crc.reset();
+        crc.update(body);
+        out = ensureRemaining(out, CHECKSUM_SIZE);
+        out.putInt((int) crc.getValue());
+        out.flip();
+
+        ByteBuffer block = ByteBuffer.allocate(out.remaining());
+        block.put(out).flip();
+        return block;
+    }
+
+    /**
+     * Decodes termCount terms from the block's remaining bytes, which must end
+     * with its checksum. A block that fails its checksum throws UncheckedIOException.
+     */
+    TermVector decode(ByteBuffer block, int termCount, TermDictionary dictionary)
+    {
+        ByteBuffer in = block.duplicate();
+        int end = in.limit() - CHECKSUM_SIZE;
+        if (end < in.position())
+            throw new UncheckedIOException(new IOException("Term block is too short"));
+
+        ByteBuffer body = in.duplicate();
+        body.limit(end);
+        crc.reset();
+        crc.update(body);
+        if ((int) crc.getValue() != in.getInt(end))
+            throw new UncheckedIOException(new IOException("Term block fails its checksum"));
+        in.limit(end);
+
+        int[] termIds = new int[termCount];
+        int[] counts = new int[termCount];
+        for (int i = 0; i < termCount; i++) {
+            int shared = getVarint(in);
+            int rest = getVarint(in);
+            int length = shared + rest;
+            if (length > current.length) {
+                // Keeps the shared prefix
+                current = Arrays.copyOf(current, Math.max(length, current.length * 2));
+            }
+            in.get(current, shared, rest);
+            termIds[i] = dictionary.idOf(termOf(current, length));
+            counts[i] = getVarint(in);
+        }
+        return TermVector.of(termIds, counts);
+    }
+
+    // Writes the term's UTF-8 bytes into current and returns how many there are
+    private int toUtf8(String term)
+    {
+        int length = term.length();
+        if (length > current.length) {
+            current = new byte[Math.max(length, current.length * 2)];
+        }
+        for (int i = 0; i < length; i++) {
+            char c = term.charAt(i);
+            if (c >= 0x80) {
+                byte[] utf8 = term.getBytes(StandardCharsets.UTF_8);
+                if (utf8.length > current.length) {
+                    current = new byte[utf8.length];
+                }
+                System.arraycopy(utf8, 0, current, 0, utf8.length);
+                return utf8.length;
+            }
+            current[i] = (byte) c;
+        }
+        return length;
+    }
+
+    // A view of the bytes as a term, only copied into a String if they aren't all ASCII
+    private CharSequence termOf(byte[] bytes, int length)
+    {
+        for (int i = 0; i < length; i++) {
+            if (bytes[i] < 0)
+                return new String(bytes, 0, length, StandardCharsets.UTF_8);
+        }
+        asciiTerm.bytes = bytes;
+        asciiTerm.length = length;
+        return asciiTerm;
+    }
+
+    private ByteBuffer ensureRemaining(ByteBuffer out, int needed)
+    {
+        if (out.remaining() >= needed)
+            return out;
+
+        ByteBuffer bigger = ByteBuffer.allocateDirect(Math.max(out.capacity() * 2, out.position() + needed));
+        out.flip();
+        bigger.put(out);
+        scratch = bigger;
+        return bigger;
+    }
+
+    static void putVarint(ByteBuffer out, int value)
+    {
+        while ((value & ~0x7F) != 0) {
+            out.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte) value);
+    }
+
+    static int getVarint(ByteBuffer in)
+    {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            byte b = in.get();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0)
+                return value;
+        }
+        throw new UncheckedIOException(new IOException("Malformed varint in term block"));
+    }
+
+    private static final class AsciiTerm implements CharSequence
+    {
+        private byte[] bytes;
+        private int length;
+
+        @Override
+        public int length()
+        {
+            return length;
+        }
+
+        @Override
+        public char charAt(int index)
+        {
+            return (char) bytes[index];
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end)
+        {
+            return new String(bytes, start, end - start, StandardCharsets.US_ASCII);
+        }
+
+        @Override
+        public String toString()
+        {
+            return new String(bytes, 0, length, StandardCharsets.US_ASCII);
+        }
+    }
+}
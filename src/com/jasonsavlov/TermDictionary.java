@@ -0,0 +1,138 @@
+package com.jasonsavlov;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A corpus-wide dictionary mapping each distinct term to a dense int ID.
+ *
+ * Lookups are lock-free and never allocate; only the first sighting of a
+ * new term takes the dictionary's lock. Every page shares the one String
+ * instance held here instead of keeping its own copy of each word.
+ */
+public final class TermDictionary
+{
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private static final class Term
+    {
+        final String text;
+        final int hash;
+        final int id;
+
+        Term(String text, int hash, int id)
+        {
+            this.text = text;
+            this.hash = hash;
+            this.id = id;
+        }
+    }
+
+    // Open-addressed table of terms; replaced wholesale when it grows
+    private volatile AtomicReferenceArray<Term> table = new AtomicReferenceArray<>(INITIAL_CAPACITY);
+
+    // Terms indexed by ID
+    private volatile String[] terms = new String[INITIAL_CAPACITY];
+
+    private int term_count = 0; // guarded by this
+
+    /**
+     * Returns the ID of the term, assigning the next free ID if it hasn't been seen.
+     */
+    public int idOf(CharSequence term)
+    {
+        int hash = hash(term);
+        Term t = find(table, term, hash);
+        if (t != null)
+            return t.id;
+
+        synchronized (this) {
+            t = find(table, term, hash);
+            if (t != null)
+                return t.id;
+
+            int id = term_count++;
+            String text = term.toString();
+            if (id == terms.length) {
+                terms = Arrays.copyOf(terms, id * 2);
+            }
+            terms[id] = text;
+
+            if (term_count * 2 > table.length()) {
+                table = rehash(table, table.length() * 2);
+            }
+            place(table, new Term(text, hash, id));
+            return id;
+        }
+    }
+
+    /**
+     * Returns the ID of the term, or -1 if it isn't in the dictionary.
+     */
+    public int lookup(CharSequence term)
+    {
+        Term t = find(table, term, hash(term));
+        return t != null ? t.id : -1;
+    }
+
+    public String termOf(int id)
+    {
+        String[] t = terms;
+        if (id < 0 || id >= t.length || t[id] == null)
+            throw new IllegalArgumentException("Unknown term ID: " + id);
+        return t[id];
+    }
+
+    public synchronized int size()
+    {
+        return term_count;
+    }
+
+    private static Term find(AtomicReferenceArray<Term> tab, CharSequence term, int hash)
+    {
+        int mask = tab.length() - 1;
+        for (int i = hash & mask; ; i = (i + 1) & mask) {
+            Term t = tab.get(i);
+            if (t == null)
+                return null;
+            if (t.hash == hash && t.text.contentEquals(term))
+                return t;
+        }
+    }
+
+    private static void place(AtomicReferenceArray<Term> tab, Term term)
+    {
+        int mask = tab.length() - 1;
+        int i = term.hash & mask;
+        while (tab.get(i) != null) {
+            i = (i + 1) & mask;
+        }
+        tab.set(i, term);
+    }
+
+    private static AtomicReferenceArray<Term> rehash(AtomicReferenceArray<Term> old, int capacity)
+    {
+        AtomicReferenceArray<Term> tab = new AtomicReferenceArray<>(capacity);
+        for (int i = 0; i < old.length(); i++) {
+            Term t = old.get(i);
+            if (t != null)
+                place(tab, t);
+        }
+        return tab;
+    }
+
+    // Same as String.hashCode, spread so that linear probing behaves
+    private static int hash(CharSequence term)
+    {
+        int h;
+        if (term instanceof String) {
+            h = term.hashCode();
+        } else {
+            h = 0;
+            for (int i = 0; i < term.length(); i++) {
+                h = 31 * h + term.charAt(i);
+            }
+        }
+        return h ^ (h >>> 16);
+    }
+}
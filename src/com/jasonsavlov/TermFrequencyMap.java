@@ -0,0 +1,107 @@
+package com.jasonsavlov;
+
+import java.util.Arrays;
+
+/**
+ * A primitive map from term ID to frequency for a single page.
+ *
+ * The map is filled by the one thread that tokenizes the page and is only
+ * read once the page has been handed off, so it does no locking of its own.
+ */
+public final class TermFrequencyMap
+{
+    private static final int EMPTY = -1;
+    private static final int DEFAULT_CAPACITY = 64;
+
+    private int[] keys;
+    private int[] counts;
+    private int entry_count = 0;
+
+    public interface EntryVisitor
+    {
+        void visit(int termId, int count);
+    }
+
+    public TermFrequencyMap()
+    {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public TermFrequencyMap(int expectedEntries)
+    {
+        int capacity = Integer.highestOneBit(Math.max(4, expectedEntries) * 2 - 1) << 1;
+        keys = new int[capacity];
+        counts = new int[capacity];
+        Arrays.fill(keys, EMPTY);
+    }
+
+    /**
+     * Adds delta to the term's frequency, inserting it if needed. Returns the new frequency.
+     */
+    public int increment(int termId, int delta)
+    {
+        if (termId < 0)
+            throw new IllegalArgumentException("Term IDs must not be negative: " + termId);
+
+        int slot = slotOf(keys, termId);
+        if (keys[slot] == termId) {
+            return counts[slot] += delta;
+        }
+
+        keys[slot] = termId;
+        counts[slot] = delta;
+        if (++entry_count * 4 > keys.length * 3) {
+            resize(keys.length * 2);
+        }
+        return delta;
+    }
+
+    /**
+     * Returns the term's frequency, or 0 if the page doesn't contain it.
+     */
+    public int get(int termId)
+    {
+        int slot = slotOf(keys, termId);
+        return keys[slot] == termId ? counts[slot] : 0;
+    }
+
+    public int size()
+    {
+        return entry_count;
+    }
+
+    public void forEach(EntryVisitor visitor)
+    {
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != EMPTY)
+                visitor.visit(keys[i], counts[i]);
+        }
+    }
+
+    // The slot holding termId, or the empty slot where it would go
+    private static int slotOf(int[] keys, int termId)
+    {
+        int mask = keys.length - 1;
+        int i = (termId * 0x9E3779B9) >>> 7 & mask;
+        while (keys[i] != termId && keys[i] != EMPTY) {
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+
+    private void resize(int capacity)
+    {
+        int[] oldKeys = keys, oldCounts = counts;
+        keys = new int[capacity];
+        counts = new int[capacity];
+        Arrays.fill(keys, EMPTY);
+
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY) {
+                int slot = slotOf(keys, oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                counts[slot] = oldCounts[i];
+            }
+        }
+    }
+}
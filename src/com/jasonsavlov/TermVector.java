@@ -0,0 +1,120 @@
+package com.jasonsavlov;
+
+import java.util.Arrays;
+
+/**
+ * An immutable sparse term-frequency vector: term IDs in ascending order,
+ * their counts, and the vector's L2 norm, computed once.
+ */
+public final class TermVector
+{
+    public static final TermVector EMPTY = new TermVector(new int[0], new int[0]);
+
+    private final int[] termIds;
+    private final int[] counts;
+    private final double norm;
+
+    private TermVector(int[] termIds, int[] counts)
+    {
+        this.termIds = termIds;
+        this.counts = counts;
+
+        long sqSum = 0;
+        for (int c : counts) {
+            sqSum += (long) c * c;
+        }
+        this.norm = Math.sqrt((double) sqSum);
+    }
+
+    public static TermVector of(TermFrequencyMap frequencies)
+    {
+        if (frequencies == null || frequencies.size() == 0)
+            return EMPTY;
+
+        final int[] termIds = new int[frequencies.size()];
+        final int[] counts = new int[frequencies.size()];
+        final int[] pos = {0};
+        frequencies.forEach((termId, count) -> {
+            termIds[pos[0]] = termId;
+            counts[pos[0]++] = count;
+        });
+        return of(termIds, counts);
+    }
+
+    /**
+     * Builds a vector from distinct term IDs in any order; the arrays are reused.
+     */
+    public static TermVector of(int[] termIds, int[] counts)
+    {
+        if (termIds.length == 0)
+            return EMPTY;
+
+        // Pack each (ID, count) pair into a long so one primitive sort orders them by ID
+        long[] packed = new long[termIds.length];
+        for (int i = 0; i < packed.length; i++) {
+            packed[i] = ((long) termIds[i] << 32) | (counts[i] & 0xFFFFFFFFL);
+        }
+        Arrays.sort(packed);
+
+        for (int i = 0; i < packed.length; i++) {
+            termIds[i] = (int) (packed[i] >>> 32);
+            counts[i] = (int) packed[i];
+        }
+        return new TermVector(termIds, counts);
+    }
+
+    public int size()
+    {
+        return termIds.length;
+    }
+
+    public int termIdAt(int i)
+    {
+        return termIds[i];
+    }
+
+    public int countAt(int i)
+    {
+        return counts[i];
+    }
+
+    // The count of the term, or 0 if the vector doesn't contain it
+    public int countOf(int termId)
+    {
+        int i = Arrays.binarySearch(termIds, termId);
+        return i >= 0 ? counts[i] : 0;
+    }
+
+    public double norm()
+    {
+        return norm;
+    }
+
+    // Merge-join over the two sorted ID arrays
+    public long dot(TermVector other)
+    {
+        int[] aIds = this.termIds, bIds = other.termIds;
+        int[] aCounts = this.counts, bCounts = other.counts;
+        long sum = 0;
+        int i = 0, j = 0;
+
+        while (i < aIds.length && j < bIds.length) {
+            int a = aIds[i], b = bIds[j];
+            if (a < b) {
+                i++;
+            } else if (a > b) {
+                j++;
+            } else {
+                sum += (long) aCounts[i++] * bCounts[j++];
+            }
+        }
+        return sum;
+    }
+
+    public double cosine(TermVector other)
+    {
+        if (this.norm == 0 || other.norm == 0)
+            return 0;
+        return dot(other) / (this.norm * other.norm);
+    }
+}
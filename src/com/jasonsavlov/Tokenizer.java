@@ -0,0 +1,101 @@
+package com.jasonsavlov;
+
+import java.util.Arrays;
+
+/**
+ * Splits page text into lowercase ASCII terms in a single pass.
+ *
+ * Words are separated by whitespace; any character in a word that isn't an
+ * ASCII letter is dropped, and words left empty are skipped. Letters are
+ * collected into a buffer that is reused for every term, so a term only
+ * becomes a String the first time the dictionary sees it.
+ *
+ * A Tokenizer is not thread-safe; give each thread its own.
+ */
+public final class Tokenizer
+{
+    private static final int INITIAL_BUFFER_SIZE = 64;
+
+    public interface TermSink
+    {
+        // The term is only valid for the duration of the call
+        void accept(CharSequence term);
+    }
+
+    private final TermBuffer buffer = new TermBuffer();
+
+    public void tokenize(CharSequence body, TermSink sink)
+    {
+        TermBuffer term = buffer;
+        term.length = 0;
+
+        for (int i = 0, n = body.length(); i < n; i++) {
+            char c = body.charAt(i);
+            if (c >= 'a' && c <= 'z') {
+                term.append(c);
+            } else if (c >= 'A' && c <= 'Z') {
+                term.append((char) (c + ('a' - 'A')));
+            } else if (isWhitespace(c) && term.length > 0) {
+                sink.accept(term);
+                term.length = 0;
+            }
+        }
+
+        if (term.length > 0) {
+            sink.accept(term);
+            term.length = 0;
+        }
+    }
+
+    /**
+     * Tokenizes the body, adding one to each term's frequency.
+     */
+    public void countTerms(CharSequence body, TermDictionary dictionary, TermFrequencyMap frequencies)
+    {
+        tokenize(body, term -> frequencies.increment(dictionary.idOf(term), 1));
+    }
+
+    // The characters matched by the \s regex class
+    private static boolean isWhitespace(char c)
+    {
+        return c == ' ' || c == '\n' || c == '\t' || c == '\r' || c == '\f' || c == '\u000B';
+    }
+
+    private static final class TermBuffer implements CharSequence
+    {
+        private char[] chars = new char[INITIAL_BUFFER_SIZE];
+        private int length;
+
+        private void append(char c)
+        {
+            if (length == chars.length) {
+                chars = Arrays.copyOf(chars, length * 2);
+            }
+            chars[length++] = c;
+        }
+
+        @Override
+        public int length()
+        {
+            return length;
+        }
+
+        @Override
+        public char charAt(int index)
+        {
+            return chars[index];
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end)
+        {
+            return new String(chars, start, end - start);
+        }
+
+        @Override
+        public String toString()
+        {
+            return new String(chars, 0, length);
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package com.jasonsavlov;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Keeps the K most similar results seen so far in a bounded min-heap, so the
+ * weakest of the current best is always the one compared against and evicted.
+ */
+public final class TopKResults
+{
+    private final int k;
+    private final PriorityQueue<CosineSimilarityCalculation.CosineSimilarityResult> heap;
+
+    public TopKResults(int k)
+    {
+        if (k < 1)
+            throw new IllegalArgumentException("K must be at least 1: " + k);
+        this.k = k;
+        // Results order themselves most similar first, so reverse that to keep the least similar on top
+        this.heap = new PriorityQueue<>(k, Collections.reverseOrder());
+    }
+
+    public int k()
+    {
+        return k;
+    }
+
+    /**
+     * Offers a result, returning true if it made it into the top K.
+     */
+    public synchronized boolean offer(CosineSimilarityCalculation.CosineSimilarityResult result)
+    {
+        if (heap.size() < k) {
+            heap.add(result);
+            return true;
+        }
+        if (result.similarity <= heap.peek().similarity) {
+            return false;
+        }
+        heap.poll();
+        heap.add(result);
+        return true;
+    }
+
+    /**
+     * Returns the current top K, most similar first.
+     */
+    public synchronized List<CosineSimilarityCalculation.CosineSimilarityResult> snapshot()
+    {
+        List<CosineSimilarityCalculation.CosineSimilarityResult> list = new ArrayList<>(heap);
+        Collections.sort(list);
+        return list;
+    }
+}
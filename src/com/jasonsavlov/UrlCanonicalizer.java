@@ -0,0 +1,108 @@
+package com.jasonsavlov;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Reduces URLs that name the same page to one canonical string, and hashes
+ * that string to the 64-bit fingerprint the crawler's visited set stores.
+ *
+ * Canonicalizing lowercases the scheme and host, drops the fragment and any
+ * default port, gives an empty path "/", and sorts the query parameters.
+ */
+public final class UrlCanonicalizer
+{
+    private UrlCanonicalizer()
+    {
+    }
+
+    public static String canonicalize(String url)
+    {
+        String trimmed = url.trim();
+        URI uri;
+        try {
+            uri = new URI(trimmed);
+        } catch (URISyntaxException ex) {
+            return stripFragment(trimmed);
+        }
+        if (uri.getScheme() == null || uri.getRawAuthority() == null) {
+            return stripFragment(trimmed);
+        }
+
+        String scheme = uri.getScheme().toLowerCase(Locale.ROOT);
+        StringBuilder sb = new StringBuilder(trimmed.length());
+        sb.append(scheme).append("://");
+
+        if (uri.getHost() == null) {
+            // A registry-based authority; keep it as it is apart from case
+            sb.append(uri.getRawAuthority().toLowerCase(Locale.ROOT));
+        } else {
+            if (uri.getRawUserInfo() != null) {
+                sb.append(uri.getRawUserInfo()).append('@');
+            }
+            sb.append(uri.getHost().toLowerCase(Locale.ROOT));
+            int port = uri.getPort();
+            if (port != -1 && port != defaultPort(scheme)) {
+                sb.append(':').append(port);
+            }
+        }
+
+        String path = uri.getRawPath();
+        sb.append(path == null || path.isEmpty() ? "/" : path);
+
+        String query = uri.getRawQuery();
+        if (query != null && !query.isEmpty()) {
+            String[] params = query.split("&");
+            Arrays.sort(params);
+            boolean first = true;
+            for (String param : params) {
+                if (param.isEmpty()) continue;
+                sb.append(first ? '?' : '&').append(param);
+                first = false;
+            }
+        }
+
+        return sb.toString();
+    }
+
+    /**
+     * The 64-bit fingerprint of the URL's canonical form: FNV-1a over its
+     * characters, then the MurmurHash3 finalizer so every bit is well mixed.
+     */
+    public static long fingerprint(String url)
+    {
+        String canonical = canonicalize(url);
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < canonical.length(); i++) {
+            h ^= canonical.charAt(i);
+            h *= 0x100000001b3L;
+        }
+
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private static int defaultPort(String scheme)
+    {
+        switch (scheme) {
+            case "http":
+                return 80;
+            case "https":
+                return 443;
+            default:
+                return -1;
+        }
+    }
+
+    private static String stripFragment(String url)
+    {
+        int hash = url.indexOf('#');
+        return hash >= 0 ? url.substring(0, hash) : url;
+    }
+}
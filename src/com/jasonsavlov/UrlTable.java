@@ -0,0 +1,273 @@
+package com.jasonsavlov;
+
+import java.nio.LongBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The crawler's visited set: the crawl state of every URL it has claimed.
+ *
+ * URLs are stored as the 64-bit fingerprint of their canonical form, with the
+ * URL's state packed into the low two bits, in open-addressed long arrays, so
+ * each URL costs about 12 bytes. The table is split into stripes, each with
+ * its own lock. Lookups never lock. Claims and state changes lock only their
+ * stripe, and a stripe that fills up is resized on its own, so growing the
+ * table never pauses the threads working in the other stripes.
+ *
+ * A URL is claimed, in the QUEUED state, by the one thread whose addIfAbsent
+ * succeeds, and from then on only moves between states by an expected-state
+ * check, so it is fetched at most once.
+ *
+ * Only the fingerprints of finished URLs are saved, in the corpus file.
+ */
+public final class UrlTable
+{
+    private static final int STRIPE_COUNT = 64;
+    private static final int STRIPE_SHIFT = Integer.numberOfLeadingZeros(STRIPE_COUNT - 1);
+    private static final int DEFAULT_STRIPE_CAPACITY = 16;
+
+    private static final long STATE_MASK = 3L;
+    private static final long EMPTY = 0L;
+
+    public enum State
+    {
+        QUEUED,     // claimed and waiting for a download thread
+        FETCHING,   // being downloaded and tokenized
+        DONE,       // downloaded and indexed
+        FAILED      // gave up on it; it won't be tried again this run
+    }
+
+    private static final State[] STATES = State.values();
+
+    private static final class Stripe
+    {
+        final ReentrantLock lock = new ReentrantLock();
+        volatile AtomicLongArray slots;
+        volatile int entry_count = 0;
+
+        Stripe(int capacity)
+        {
+            slots = new AtomicLongArray(capacity);
+        }
+    }
+
+    private Stripe[] stripes;
+
+    public UrlTable()
+    {
+        this(STRIPE_COUNT * DEFAULT_STRIPE_CAPACITY / 2);
+    }
+
+    public UrlTable(int expectedUrls)
+    {
+        init(expectedUrls);
+    }
+
+    private void init(int expectedUrls)
+    {
+        // Room for each stripe's share of the URLs without going over two-thirds full
+        int perStripe = DEFAULT_STRIPE_CAPACITY;
+        while (perStripe * 2 < expectedUrls / STRIPE_COUNT * 3) {
+            perStripe <<= 1;
+        }
+        stripes = new Stripe[STRIPE_COUNT];
+        for (int i = 0; i < STRIPE_COUNT; i++) {
+            stripes[i] = new Stripe(perStripe);
+        }
+    }
+
+    /**
+     * Claims the URL in the QUEUED state if no thread has claimed it yet.
+     * Returns true only for the one caller that did.
+     */
+    public boolean addIfAbsent(String url)
+    {
+        return addIfAbsent(key(url), State.QUEUED);
+    }
+
+    private boolean addIfAbsent(long key, State state)
+    {
+        Stripe stripe = stripeFor(key);
+
+        // Most calls are for URLs we already have, so check before taking the lock
+        if (find(stripe.slots, key) >= 0)
+            return false;
+
+        stripe.lock.lock();
+        try {
+            AtomicLongArray slots = stripe.slots;
+            int i = find(slots, key);
+            if (i >= 0)
+                return false;
+
+            slots.set(-i - 1, key | state.ordinal());
+            if (++stripe.entry_count * 3 > slots.length() * 2) {
+                stripe.slots = rehash(slots, slots.length() * 2);
+            }
+            return true;
+        } finally {
+            stripe.lock.unlock();
+        }
+    }
+
+    public boolean contains(String url)
+    {
+        long key = key(url);
+        return find(stripeFor(key).slots, key) >= 0;
+    }
+
+    /**
+     * Moves the URL from one state to another, failing if it isn't in the expected state.
+     */
+    public boolean transition(String url, State expected, State next)
+    {
+        long key = key(url);
+        Stripe stripe = stripeFor(key);
+
+        // Locked so that a concurrent resize can't copy the slot out from under us
+        stripe.lock.lock();
+        try {
+            AtomicLongArray slots = stripe.slots;
+            int i = find(slots, key);
+            return i >= 0 && slots.compareAndSet(i, key | expected.ordinal(), key | next.ordinal());
+        } finally {
+            stripe.lock.unlock();
+        }
+    }
+
+    // The URL's crawl state, or null if it was never claimed
+    public State stateOf(String url)
+    {
+        long key = key(url);
+        AtomicLongArray slots = stripeFor(key).slots;
+        int i = find(slots, key);
+        return i >= 0 ? STATES[(int) (slots.get(i) & STATE_MASK)] : null;
+    }
+
+    public int size()
+    {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            size += stripe.entry_count;
+        }
+        return size;
+    }
+
+    public int count(State state)
+    {
+        int count = 0;
+        for (Stripe stripe : stripes) {
+            AtomicLongArray slots = stripe.slots;
+            for (int i = 0; i < slots.length(); i++) {
+                long slot = slots.get(i);
+                if (slot != EMPTY && (slot & STATE_MASK) == state.ordinal())
+                    count++;
+            }
+        }
+        return count;
+    }
+
+    // The fingerprint with its state bits cleared, never equal to EMPTY
+    private static long key(String url)
+    {
+        long key = UrlCanonicalizer.fingerprint(url) & ~STATE_MASK;
+        return key != EMPTY ? key : STATE_MASK + 1;
+    }
+
+    private Stripe stripeFor(long key)
+    {
+        return stripes[(int) (key >>> (32 + STRIPE_SHIFT))];
+    }
+
+    private static int slotFor(long key, int mask)
+    {
+        return (int) (key >>> 2) & mask;
+    }
+
+    // The slot holding key, or (-(empty slot) - 1) if it isn't there
+    private static int find(AtomicLongArray slots, long key)
+    {
+        int mask = slots.length() - 1;
+        for (int i = slotFor(key, mask); ; i = (i + 1) & mask) {
+            long slot = slots.get(i);
+            if (slot == EMPTY)
+                return -i - 1;
+            if ((slot & ~STATE_MASK) == key)
+                return i;
+        }
+    }
+
+    private static AtomicLongArray rehash(AtomicLongArray old, int capacity)
+    {
+        AtomicLongArray slots = new AtomicLongArray(capacity);
+        int mask = capacity - 1;
+        for (int i = 0; i < old.length(); i++) {
+            long slot = old.get(i);
+            if (slot == EMPTY) continue;
+            int j = slotFor(slot & ~STATE_MASK, mask);
+            while (slots.get(j) != EMPTY) {
+                j = (j + 1) & mask;
+            }
+            slots.set(j, slot);
+        }
+        return slots;
+    }
+
+    /**
+     * The fingerprints of the finished URLs, the ones worth saving. Anything
+     * still in flight is crawled again next time.
+     */
+    long[] finishedFingerprints()
+    {
+        long[] keys = new long[1024];
+        int count = 0;
+        for (Stripe stripe : stripes) {
+            AtomicLongArray slots = stripe.slots;
+            for (int i = 0; i < slots.length(); i++) {
+                long slot = slots.get(i);
+                if (slot != EMPTY && (slot & STATE_MASK) == State.DONE.ordinal()) {
+                    if (count == keys.length) {
+                        keys = Arrays.copyOf(keys, count * 2);
+                    }
+                    keys[count++] = slot & ~STATE_MASK;
+                }
+            }
+        }
+        return Arrays.copyOf(keys, count);
+    }
+
+    /**
+     * The finished fingerprints, and those of the given URLs whatever their
+     * state, each once. Pages that are already saved count as finished even
+     * if their URLs haven't been marked so yet.
+     */
+    long[] finishedFingerprints(List<String> finishedUrls)
+    {
+        long[] finished = finishedFingerprints();
+        long[] keys = Arrays.copyOf(finished, finished.length + finishedUrls.size());
+        for (int i = 0; i < finishedUrls.size(); i++) {
+            keys[finished.length + i] = key(finishedUrls.get(i));
+        }
+        Arrays.sort(keys);
+
+        int count = 0;
+        for (int i = 0; i < keys.length; i++) {
+            if (count == 0 || keys[i] != keys[count - 1]) {
+                keys[count++] = keys[i];
+            }
+        }
+        return Arrays.copyOf(keys, count);
+    }
+
+    // A table with every fingerprint in it DONE
+    static UrlTable ofFinished(LongBuffer fingerprints)
+    {
+        UrlTable table = new UrlTable(fingerprints.remaining());
+        while (fingerprints.hasRemaining()) {
+            table.addIfAbsent(fingerprints.get(), State.DONE);
+        }
+        return table;
+    }
+}
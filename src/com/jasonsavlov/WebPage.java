@@ -10,20 +10,32 @@ public class WebPage implements Serializable
     private transient String pageBodyText;
     private transient List<WebPage> listOfLinks;
     private long lastModifiedTime = 0L;
+    // The server's ETag for the version of the page we have, or null if it sent none
+    private String entityTag;
     private transient long newModifiedTime = 0L;
-    private transient JSBTree mainTree;
+    private transient TermFrequencyMap termFrequencies;
+    private transient volatile TermVector termVector;
+    private transient volatile CorpusFile.PageBlock storedTerms;
 
 
     public WebPage(String pageURL)
     {
         this.pageURL = pageURL;
-        this.mainTree = new JSBTree();
+        this.termFrequencies = new TermFrequencyMap();
     }
 
-    public WebPage(String pageURL, JSBTree tree)
+    // A page whose terms were already counted, e.g. one restored from disk
+    public WebPage(String pageURL, TermVector termVector)
     {
         this.pageURL = pageURL;
-        this.mainTree = tree;
+        this.termVector = termVector;
+    }
+
+    // A page mapped from a corpus file; its terms are decoded the first time they're needed
+    public WebPage(String pageURL, CorpusFile.PageBlock storedTerms)
+    {
+        this.pageURL = pageURL;
+        this.storedTerms = storedTerms;
     }
 
     public long getLastModifiedTime()
@@ -36,6 +48,16 @@ public class WebPage implements Serializable
         this.lastModifiedTime = lastModifiedTime;
     }
 
+    public String getEntityTag()
+    {
+        return entityTag;
+    }
+
+    public void setEntityTag(String entityTag)
+    {
+        this.entityTag = entityTag;
+    }
+
     public String getPageURL()
     {
         return pageURL;
@@ -61,9 +83,57 @@ public class WebPage implements Serializable
         this.listOfLinks = listOfLinks;
     }
 
-    public JSBTree getMainTree()
+    // The counts being filled in while the page is tokenized; null once the term vector is built
+    public TermFrequencyMap getTermFrequencies()
+    {
+        return termFrequencies;
+    }
+
+    public TermVector getTermVector()
+    {
+        TermVector v = termVector;
+        return v != null ? v : buildTermVector();
+    }
+
+    // Freezes the counted terms into the page's term vector and drops the map
+    public synchronized TermVector buildTermVector()
+    {
+        if (termVector == null) {
+            if (storedTerms != null) {
+                termVector = storedTerms.decode();
+            } else {
+                termVector = TermVector.of(termFrequencies);
+                termFrequencies = null;
+            }
+        }
+        return termVector;
+    }
+
+    // The page's terms, decoded from disk without being kept if they haven't been materialized yet
+    TermVector readTermVector()
+    {
+        TermVector v = termVector;
+        if (v != null) return v;
+        CorpusFile.PageBlock stored = storedTerms;
+        return stored != null ? stored.decode() : getTermVector();
+    }
+
+    // The still-encoded terms of a page mapped from disk, or null
+    CorpusFile.PageBlock getStoredTerms()
+    {
+        return storedTerms;
+    }
+
+    public int getTermCount()
+    {
+        CorpusFile.PageBlock stored = storedTerms;
+        return stored != null ? stored.termCount() : getTermVector().size();
+    }
+
+    public double getTermNorm()
     {
-        return mainTree;
+        CorpusFile.PageBlock stored = storedTerms;
+        return stored != null ? stored.norm() : getTermVector().norm();
     }
 
     @Override
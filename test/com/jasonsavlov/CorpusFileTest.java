@@ -0,0 +1,215 @@
+package com.jasonsavlov;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static com.jasonsavlov.PageFixtures.page;
+import static org.junit.Assert.*;
+
+public class CorpusFileTest
+{
+    private File file;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        file = File.createTempFile("corpus", ".csc365");
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        file.delete();
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception
+    {
+        List<WebPage> pages = new ArrayList<>();
+        pages.add(page("https://en.wikipedia.org/wiki/B-tree", "A B-tree is a self-balancing tree. Trees, trees, trees!"));
+        pages.add(page("https://en.wikipedia.org/wiki/Empty", ""));
+        pages.add(page("https://en.wikipedia.org/wiki/Caf\u00e9", "caf\u00e9 au lait, with more lait"));
+        pages.get(0).setLastModifiedTime(1445212800000L);
+        pages.get(0).setEntityTag("\"5f2a-b3\"");
+
+        UrlTable urls = new UrlTable();
+        for (WebPage page : pages) {
+            urls.addIfAbsent(page.getPageURL());
+            urls.transition(page.getPageURL(), UrlTable.State.QUEUED, UrlTable.State.DONE);
+        }
+        urls.addIfAbsent("https://en.wikipedia.org/wiki/Still_queued");
+
+        CorpusFile.write(pages, urls, file);
+        assertTrue(CorpusFile.isCorpusFile(file));
+
+        CorpusFile.Contents contents = CorpusFile.load(file);
+        List<WebPage> loaded = contents.pages;
+        assertEquals(pages.size(), contents.urlTable.size());
+        assertEquals(UrlTable.State.DONE, contents.urlTable.stateOf("https://en.wikipedia.org/wiki/Empty"));
+        assertEquals(pages.size(), loaded.size());
+        for (int i = 0; i < pages.size(); i++) {
+            TermVector expected = pages.get(i).getTermVector();
+            TermVector actual = loaded.get(i).getTermVector();
+            assertEquals(pages.get(i).getPageURL(), loaded.get(i).getPageURL());
+            assertEquals(pages.get(i).getLastModifiedTime(), loaded.get(i).getLastModifiedTime());
+            assertEquals(pages.get(i).getEntityTag(), loaded.get(i).getEntityTag());
+            assertEquals(expected.size(), actual.size());
+            for (int j = 0; j < expected.size(); j++) {
+                assertEquals(expected.termIdAt(j), actual.termIdAt(j));
+                assertEquals(expected.countAt(j), actual.countAt(j));
+            }
+        }
+        assertEquals(1.0, loaded.get(0).getTermVector().cosine(pages.get(0).getTermVector()), 1e-9);
+    }
+
+    @Test
+    public void testLegacyTreeFileLoads() throws Exception
+    {
+        List<WebPage> pages = new ArrayList<>();
+        pages.add(page("https://en.wikipedia.org/wiki/B-tree", "A B-tree is a self-balancing tree. Trees, trees, trees!"));
+        pages.add(page("https://en.wikipedia.org/wiki/Empty", ""));
+        pages.add(page("https://en.wikipedia.org/wiki/Leaf", "leaf node leaf"));
+
+        JSBTree.serializeBTrees(pages, file);
+        assertFalse(CorpusFile.isCorpusFile(file));
+
+        // Trees come back keyed by URL, so in no particular order
+        List<WebPage> loaded = CorpusFile.readLegacy(file);
+        assertEquals(pages.size(), loaded.size());
+        for (WebPage page : pages) {
+            WebPage match = null;
+            for (WebPage l : loaded) {
+                if (l.getPageURL().equals(page.getPageURL())) {
+                    match = l;
+                }
+            }
+            assertNotNull(match);
+            assertEquals(page.getTermVector().size(), match.getTermVector().size());
+            assertEquals(page.getTermVector().dot(page.getTermVector()), page.getTermVector().dot(match.getTermVector()));
+        }
+    }
+
+    @Test
+    public void testIncompleteFileIsRefused() throws Exception
+    {
+        List<WebPage> pages = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            pages.add(page("https://en.wikipedia.org/wiki/Page_" + i, "some words on page number"));
+        }
+        CorpusFile.write(pages, new UrlTable(), file);
+        long length = file.length();
+
+        // Cut short, as by a crash part way through writing it in place
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(length - 10);
+        }
+        try {
+            CorpusFile.load(file);
+            fail("A truncated corpus file should not load");
+        } catch (IOException expected) {
+        }
+
+        // The right length, but a damaged directory
+        CorpusFile.write(pages, new UrlTable(), file);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(30);
+            int b = raf.read();
+            raf.seek(30);
+            raf.write(b ^ 0x01);
+        }
+        try {
+            CorpusFile.load(file);
+            fail("A corpus file that fails its checksum should not load");
+        } catch (IOException expected) {
+        }
+    }
+
+    @Test
+    public void testOtherVersionsAreRefused() throws Exception
+    {
+        List<WebPage> pages = new ArrayList<>();
+        pages.add(page("https://en.wikipedia.org/wiki/B-tree", "a tree of pages"));
+
+        for (int version : new int[]{1, 5, CorpusFile.VERSION + 1}) {
+            CorpusFile.write(pages, new UrlTable(), file);
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                raf.seek(4);
+                raf.writeInt(version);
+            }
+            try {
+                CorpusFile.load(file);
+                fail("A version " + version + " corpus file should not load");
+            } catch (IOException expected) {
+            }
+        }
+    }
+
+    @Test
+    public void testOversizedUrlsAndTagsAreNotWritten() throws Exception
+    {
+        char[] chars = new char[CorpusFile.MAX_FIELD_LENGTH];
+        Arrays.fill(chars, 'x');
+        String longPath = new String(chars);
+
+        List<WebPage> pages = new ArrayList<>();
+        pages.add(page("https://en.wikipedia.org/wiki/Before", "before"));
+        pages.add(page("https://en.wikipedia.org/wiki/" + longPath, "a very long url"));
+        pages.add(page("https://en.wikipedia.org/wiki/After", "after"));
+        pages.get(2).setEntityTag("\"" + longPath + "\"");
+
+        CorpusFile.write(pages, new UrlTable(), file);
+        List<WebPage> loaded = CorpusFile.read(file);
+
+        assertEquals(2, loaded.size());
+        assertEquals("https://en.wikipedia.org/wiki/Before", loaded.get(0).getPageURL());
+        assertEquals("https://en.wikipedia.org/wiki/After", loaded.get(1).getPageURL());
+        assertNull(loaded.get(1).getEntityTag());
+        assertEquals(pages.get(2).getTermVector().size(), loaded.get(1).getTermVector().size());
+    }
+
+    @Test
+    public void testTermBlockIsFrontCodedAndChecksummed() throws Exception
+    {
+        StringBuilder body = new StringBuilder("caf\u00e9 caf\u00e9s ");
+        for (int i = 0; i < 300; i++) {
+            body.append("balance balanced balancing tree trees treetop ");
+        }
+        TermVector vector = page("https://en.wikipedia.org/wiki/Balance", body.toString()).getTermVector();
+
+        ByteBuffer block = CorpusFile.encodeTermBlock(vector);
+        int plainSize = 0;
+        for (String term : CorpusFile.sortedTerms(vector)) {
+            plainSize += 2 + term.getBytes(StandardCharsets.UTF_8).length + 4;
+        }
+        assertTrue(block.remaining() * 3 < plainSize * 2);
+
+        // Decoding straight out of a direct buffer, as from a mapped file
+        ByteBuffer direct = ByteBuffer.allocateDirect(block.remaining());
+        direct.put(block.duplicate()).flip();
+        TermVector decoded = CorpusFile.decodeTermBlock(direct, vector.size());
+        assertEquals(vector.size(), decoded.size());
+        for (int j = 0; j < vector.size(); j++) {
+            assertEquals(vector.termIdAt(j), decoded.termIdAt(j));
+            assertEquals(vector.countAt(j), decoded.countAt(j));
+        }
+        assertEquals(300, decoded.countOf(Main.termDictionary.lookup("balancing")));
+
+        direct.put(3, (byte) (direct.get(3) ^ 0x01));
+        try {
+            CorpusFile.decodeTermBlock(direct, vector.size());
+            fail("A corrupt block should fail its checksum");
+        } catch (UncheckedIOException expected) {
+        }
+    }
+}
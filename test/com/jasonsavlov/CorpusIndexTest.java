@@ -0,0 +1,174 @@
+package com.jasonsavlov;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import static com.jasonsavlov.PageFixtures.corpus;
+import static com.jasonsavlov.PageFixtures.page;
+import static org.junit.Assert.*;
+
+public class CorpusIndexTest
+{
+    @Test
+    public void testReplacedPageScoresLikeAFreshIndex() throws Exception
+    {
+        List<WebPage> pages = corpus();
+        CorpusIndex index = new CorpusIndex();
+        for (WebPage p : pages) {
+            index.addPage(p);
+        }
+        TermVector query = page("query", "tree wordd termb brand new words").getTermVector();
+        index.dotProducts(query);
+
+        // Drops some terms, changes some counts and adds terms no page had
+        WebPage changed = page("https://en.wikipedia.org/wiki/Page_10", "tree tree tree brand new words wordd");
+        assertTrue(index.replacePage(changed));
+        assertFalse(index.replacePage(page("https://en.wikipedia.org/wiki/Page_50", "word3")));
+        pages.set(10, changed);
+        pages.add(index.getPage(50));
+
+        CorpusIndex fresh = new CorpusIndex();
+        for (WebPage p : pages) {
+            fresh.addPage(p);
+        }
+
+        assertEquals(51, index.size());
+        assertSame(changed, index.getPage(10));
+        assertEquals(changed.getTermNorm(), index.normOf(10), 0.0);
+        assertArrayEquals(fresh.dotProducts(query), index.dotProducts(query));
+
+        int brand = Main.termDictionary.lookup("brand");
+        int termb = Main.termDictionary.lookup("termb");
+        assertEquals(1, index.documentFrequency(brand));
+        assertEquals(fresh.documentFrequency(termb), index.documentFrequency(termb));
+    }
+
+    @Test
+    public void testRangesAddUpToTheWholeCorpus() throws Exception
+    {
+        CorpusIndex index = new CorpusIndex();
+        for (WebPage p : corpus()) {
+            index.addPage(p);
+        }
+        index.addPage(page("https://en.wikipedia.org/wiki/Unrelated", "nothing shared here"));
+
+        TermVector query = page("query", "wordd termb tree").getTermVector();
+        long[] whole = index.dotProducts(query);
+        assertEquals(51, whole.length);
+
+        // Ranges that start and end part way through the postings lists
+        int[] bounds = {0, 3, 17, 18, 40, 51};
+        long[] stitched = new long[whole.length];
+        for (int b = 0; b + 1 < bounds.length; b++) {
+            long[] range = index.dotProducts(query, bounds[b], bounds[b + 1]);
+            assertEquals(bounds[b + 1] - bounds[b], range.length);
+            System.arraycopy(range, 0, stitched, bounds[b], range.length);
+        }
+        assertArrayEquals(whole, stitched);
+        assertEquals(6, index.dotProducts(query, 45, 1000).length);
+
+        // The unrelated page shares no term with the query; Page_10 has tree, wordd twice and termb
+        assertEquals(0L, whole[50]);
+        assertEquals(0L, index.dotProducts(query, 50, 51)[0]);
+        assertEquals(3L, whole[3]);
+        assertEquals(4L, whole[10]);
+    }
+
+    @Test
+    public void testMatchesAreTheNonZeroDotProducts() throws Exception
+    {
+        CorpusIndex index = new CorpusIndex();
+        for (WebPage p : corpus()) {
+            index.addPage(p);
+        }
+        TermVector query = page("query", "wordd termb").getTermVector();
+        long[] dots = index.dotProducts(query);
+
+        CorpusIndex.Matches matches = index.matches(query);
+        int n = 0;
+        for (int pageId = 0; pageId < dots.length; pageId++) {
+            if (dots[pageId] == 0) continue;
+            assertEquals(index.getPage(pageId).getPageURL(), matches.urls[n]);
+            assertEquals(index.normOf(pageId), matches.norms[n], 0.0);
+            assertEquals(dots[pageId], matches.dots[n]);
+            n++;
+        }
+        assertEquals(n, matches.size());
+
+        // termb is on pages 1, 4, 7 and so on, wordd on pages 3, 10, 17 and so on
+        assertTrue(n > 0 && n < dots.length);
+        assertEquals("https://en.wikipedia.org/wiki/Page_1", matches.urls[0]);
+        assertEquals(0, index.matches(page("query", "absent").getTermVector()).size());
+    }
+
+    @Test
+    public void testSavedPagesDecodeOnTheIndexPool() throws Exception
+    {
+        File corpusFile = File.createTempFile("corpus", ".csc365");
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            List<WebPage> pages = corpus();
+            CorpusFile.write(pages, corpusFile);
+
+            CorpusIndex index = new CorpusIndex(pool);
+            for (WebPage p : CorpusFile.read(corpusFile)) {
+                index.addPage(p);
+            }
+            index.indexPendingPages();
+            assertTrue(pool.getStealCount() > 0 || pool.getPoolSize() > 0);
+
+            CorpusIndex fresh = new CorpusIndex();
+            for (WebPage p : pages) {
+                fresh.addPage(p);
+            }
+            TermVector query = page("query", "tree wordd termb").getTermVector();
+            assertArrayEquals(fresh.dotProducts(query), index.dotProducts(query));
+        } finally {
+            pool.shutdown();
+            corpusFile.delete();
+        }
+    }
+
+    @Test
+    public void testDamagedPageIsIndexedAsEmpty() throws Exception
+    {
+        File corpusFile = File.createTempFile("corpus", ".csc365");
+        try {
+            List<WebPage> pages = corpus();
+            CorpusFile.write(pages, corpusFile);
+
+            // The last page's block ends the file; flip a byte just before its checksum
+            try (RandomAccessFile raf = new RandomAccessFile(corpusFile, "rw")) {
+                raf.seek(raf.length() - 6);
+                int b = raf.read();
+                raf.seek(raf.length() - 6);
+                raf.write(b ^ 0xFF);
+            }
+
+            CorpusIndex index = new CorpusIndex();
+            for (WebPage p : CorpusFile.read(corpusFile)) {
+                index.addPage(p);
+            }
+            index.indexPendingPages();
+            assertEquals(Arrays.asList("https://en.wikipedia.org/wiki/Page_49"), index.takeDamagedUrls());
+            assertTrue(index.takeDamagedUrls().isEmpty());
+
+            TermVector query = page("query", "tree node").getTermVector();
+            long[] dots = index.dotProducts(query);
+            assertEquals(0L, dots[49]);
+            assertTrue(dots[48] > 0);
+
+            // Fetched again, it replaces the empty page
+            WebPage refetched = page("https://en.wikipedia.org/wiki/Page_49", "tree tree node");
+            assertTrue(index.replacePage(refetched));
+            assertEquals(3L, index.dotProducts(query)[49]);
+        } finally {
+            corpusFile.delete();
+        }
+    }
+}
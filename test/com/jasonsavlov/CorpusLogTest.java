@@ -0,0 +1,209 @@
+package com.jasonsavlov;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.List;
+
+import static com.jasonsavlov.PageFixtures.corpus;
+import static com.jasonsavlov.PageFixtures.page;
+import static org.junit.Assert.*;
+
+public class CorpusLogTest
+{
+    @Test
+    public void testLogReplaysOverTheCorpus() throws Exception
+    {
+        File file = File.createTempFile("corpus", ".log");
+        file.delete();
+        CorpusLog log = new CorpusLog(file);
+        try {
+            List<WebPage> pages = corpus();
+            WebPage first = page("https://en.wikipedia.org/wiki/Page_3", "first edit");
+            WebPage second = page("https://en.wikipedia.org/wiki/Page_3", "second edit edit");
+            second.setEntityTag("\"v2\"");
+            second.setLastModifiedTime(1445212800000L);
+            log.append(first);
+            log.append(second);
+            log.append(page("https://en.wikipedia.org/wiki/Page_new", "a page that is new"));
+
+            // A crash part way through appending leaves a torn record at the end
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                raf.seek(raf.length());
+                raf.writeInt(1000);
+                raf.writeShort(12);
+            }
+
+            List<WebPage> logged = log.read();
+            assertEquals(3, logged.size());
+
+            // The torn record is cut off before the next append, which is then readable
+            CorpusLog reopened = new CorpusLog(file);
+            reopened.append(page("https://en.wikipedia.org/wiki/Page_4", "after the crash"));
+            assertEquals(4, reopened.read().size());
+            reopened.clear();
+
+            List<WebPage> applied = CorpusLog.applyTo(pages, logged);
+            assertEquals(51, applied.size());
+            WebPage replayed = applied.get(3);
+            assertEquals("\"v2\"", replayed.getEntityTag());
+            assertEquals(1445212800000L, replayed.getLastModifiedTime());
+            assertEquals(1.0, replayed.getTermVector().cosine(second.getTermVector()), 1e-9);
+            assertEquals("https://en.wikipedia.org/wiki/Page_new", applied.get(50).getPageURL());
+
+            log.clear();
+            assertFalse(file.exists());
+            assertTrue(log.read().isEmpty());
+        } finally {
+            log.clear();
+        }
+    }
+
+    @Test
+    public void testChecksumStopsReplay() throws Exception
+    {
+        File file = File.createTempFile("corpus", ".log");
+        file.delete();
+        CorpusLog log = new CorpusLog(file);
+        try {
+            for (int i = 0; i < 3; i++) {
+                log.append(page("https://en.wikipedia.org/wiki/Page_" + i, "some words for page"));
+            }
+            long secondRecord = 8 + (file.length() - 8) / 3;
+
+            // Flip a byte inside the second record's payload
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                raf.seek(secondRecord + 20);
+                int b = raf.read();
+                raf.seek(secondRecord + 20);
+                raf.write(b ^ 0xFF);
+            }
+            assertEquals(1, log.read().size());
+        } finally {
+            log.clear();
+        }
+    }
+
+    @Test
+    public void testOtherVersionIsStartedOver() throws Exception
+    {
+        File file = File.createTempFile("corpus", ".log");
+        file.delete();
+        CorpusLog older = new CorpusLog(file);
+        CorpusLog log = new CorpusLog(file);
+        try {
+            older.append(page("https://en.wikipedia.org/wiki/Page_0", "some words for page"));
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                raf.seek(4);
+                raf.writeInt(CorpusLog.VERSION - 1);
+            }
+
+            // Its records are not replayed, and the next append starts a new log in their place
+            assertTrue(log.read().isEmpty());
+            log.append(page("https://en.wikipedia.org/wiki/Page_1", "other words"));
+            List<WebPage> logged = log.read();
+            assertEquals(1, logged.size());
+            assertEquals("https://en.wikipedia.org/wiki/Page_1", logged.get(0).getPageURL());
+        } finally {
+            older.clear();
+            log.clear();
+        }
+    }
+
+    @Test
+    public void testCompactionKeepsEveryPage() throws Exception
+    {
+        File corpusFile = File.createTempFile("corpus", ".csc365");
+        File file = new File(corpusFile.getPath() + ".log");
+        CorpusLog log = new CorpusLog(file);
+        try {
+            CorpusIndex index = new CorpusIndex();
+            for (WebPage p : corpus()) {
+                index.addPage(p);
+                log.append(p);
+            }
+            log.compactInto(corpusFile, index, new UrlTable());
+            assertTrue(log.read().isEmpty());
+
+            WebPage changed = page("https://en.wikipedia.org/wiki/Page_7", "changed after compaction");
+            index.replacePage(changed);
+            log.append(changed);
+
+            List<WebPage> recovered = CorpusLog.applyTo(CorpusFile.read(corpusFile), log.read());
+            assertEquals(50, recovered.size());
+            assertEquals(1.0, recovered.get(7).getTermVector().cosine(changed.getTermVector()), 1e-9);
+            assertEquals(1.0, recovered.get(8).getTermVector().cosine(index.getPage(8).getTermVector()), 1e-9);
+        } finally {
+            log.clear();
+            corpusFile.delete();
+        }
+    }
+
+    @Test
+    public void testCompactionSavesIndexedUrlsAsVisited() throws Exception
+    {
+        File corpusFile = File.createTempFile("corpus", ".csc365");
+        File file = new File(corpusFile.getPath() + ".log");
+        CorpusLog log = new CorpusLog(file);
+        try {
+            String wiki = "https://en.wikipedia.org/wiki/";
+            UrlTable urls = new UrlTable();
+            for (String name : new String[]{"done", "fetching", "other", "queued"}) {
+                urls.addIfAbsent(wiki + name);
+            }
+            urls.transition(wiki + "done", UrlTable.State.QUEUED, UrlTable.State.DONE);
+            urls.transition(wiki + "other", UrlTable.State.QUEUED, UrlTable.State.DONE);
+            urls.transition(wiki + "fetching", UrlTable.State.QUEUED, UrlTable.State.FETCHING);
+
+            // The crawl indexes a page before it marks the page done
+            CorpusIndex index = new CorpusIndex();
+            index.addPage(page(wiki + "done", "a page that is done"));
+            index.addPage(page(wiki + "fetching", "a page that is still fetching"));
+
+            log.compactInto(corpusFile, index, urls);
+
+            UrlTable saved = CorpusFile.load(corpusFile).urlTable;
+            assertEquals(3, saved.size());
+            assertEquals(UrlTable.State.DONE, saved.stateOf(wiki + "done"));
+            assertEquals(UrlTable.State.DONE, saved.stateOf(wiki + "fetching"));
+            assertEquals(UrlTable.State.DONE, saved.stateOf(wiki + "other"));
+            assertNull(saved.stateOf(wiki + "queued"));
+        } finally {
+            log.clear();
+            corpusFile.delete();
+        }
+    }
+
+    @Test
+    public void testOversizedUrlIsNotLogged() throws Exception
+    {
+        File file = File.createTempFile("corpus", ".log");
+        file.delete();
+        CorpusLog log = new CorpusLog(file);
+        try {
+            char[] chars = new char[CorpusFile.MAX_FIELD_LENGTH];
+            Arrays.fill(chars, 'x');
+            String longPath = new String(chars);
+
+            log.append(page("https://en.wikipedia.org/wiki/Before", "before"));
+            try {
+                log.append(page("https://en.wikipedia.org/wiki/" + longPath, "a very long url"));
+                fail("A URL too long for its length field should not be logged");
+            } catch (IOException expected) {
+            }
+            WebPage tagged = page("https://en.wikipedia.org/wiki/After", "after");
+            tagged.setEntityTag("\"" + longPath + "\"");
+            log.append(tagged);
+
+            List<WebPage> logged = log.read();
+            assertEquals(2, logged.size());
+            assertEquals("https://en.wikipedia.org/wiki/After", logged.get(1).getPageURL());
+            assertNull(logged.get(1).getEntityTag());
+        } finally {
+            log.clear();
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package com.jasonsavlov;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class CosineSimilarityCalculatorEngineTest
+{
+    // Events the engine delivered, in order
+    private static class RecordingListener implements DownloadActionListener
+    {
+        final List<String> events = Collections.synchronizedList(new ArrayList<>());
+        volatile List<CosineSimilarityCalculation.CosineSimilarityResult> finalResults;
+
+        @Override
+        public void finishedDownloadingContent(WebPage page)
+        {
+        }
+
+        @Override
+        public void updatedSimilarityResults(List<CosineSimilarityCalculation.CosineSimilarityResult> bestSoFar)
+        {
+            events.add("updated");
+        }
+
+        @Override
+        public void finishedCalculatingSimilarity(List<CosineSimilarityCalculation.CosineSimilarityResult> topResults)
+        {
+            events.add("finished");
+            finalResults = topResults;
+        }
+    }
+
+    // Pages spread over several task ranges, each sharing "alpha" with the query and a few also "beta"
+    private static CorpusIndex corpus(int pageCount)
+    {
+        int alpha = Main.termDictionary.idOf("alpha");
+        int beta = Main.termDictionary.idOf("beta");
+        int gamma = Main.termDictionary.idOf("gamma");
+        CorpusIndex index = new CorpusIndex();
+        for (int i = 0; i < pageCount; i++) {
+            TermVector vector = i % 1000 == 7
+                    ? TermVector.of(new int[] {alpha, beta}, new int[] {1, 1})
+                    : TermVector.of(new int[] {alpha, gamma}, new int[] {1, 1 + i % 5});
+            index.addPage(new WebPage("https://en.wikipedia.org/wiki/Page_" + i, vector));
+        }
+        return index;
+    }
+
+    private static WebPage query()
+    {
+        int alpha = Main.termDictionary.idOf("alpha");
+        int beta = Main.termDictionary.idOf("beta");
+        return new WebPage("query", TermVector.of(new int[] {alpha, beta}, new int[] {1, 1}));
+    }
+
+    @Test
+    public void testUpdatesArriveBeforeTheFinalResults() throws Exception
+    {
+        CorpusIndex index = corpus(CosineSimilarityCalculatorEngine.PAGES_PER_TASK * 3);
+        RecordingListener listener = new RecordingListener();
+        new CosineSimilarityCalculatorEngine(index, query(), 3, listener).run();
+
+        List<String> events = new ArrayList<>(listener.events);
+        assertTrue(events.size() >= 2);
+        assertEquals("updated", events.get(0));
+        assertEquals("finished", events.get(events.size() - 1));
+        assertEquals(1, Collections.frequency(events, "finished"));
+
+        // The pages that share both terms with the query match it exactly
+        assertEquals(3, listener.finalResults.size());
+        for (CosineSimilarityCalculation.CosineSimilarityResult r : listener.finalResults) {
+            assertEquals(1.0, r.similarity, 1e-9);
+        }
+    }
+
+    @Test
+    public void testCancelledQueryNeverFinishes() throws Exception
+    {
+        CorpusIndex index = corpus(CosineSimilarityCalculatorEngine.PAGES_PER_TASK * 8);
+        CosineSimilarityCalculatorEngine[] engine = new CosineSimilarityCalculatorEngine[1];
+
+        // Cancelled by the first range to report, while the other ranges are still to score
+        RecordingListener listener = new RecordingListener()
+        {
+            @Override
+            public void updatedSimilarityResults(List<CosineSimilarityCalculation.CosineSimilarityResult> bestSoFar)
+            {
+                super.updatedSimilarityResults(bestSoFar);
+                engine[0].cancel();
+            }
+        };
+        engine[0] = new CosineSimilarityCalculatorEngine(index, query(), 3, listener);
+        engine[0].run();
+
+        assertTrue(engine[0].isCancelled());
+        assertFalse(listener.events.contains("finished"));
+        assertNull(listener.finalResults);
+    }
+}
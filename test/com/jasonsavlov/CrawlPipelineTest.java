@@ -0,0 +1,137 @@
+package com.jasonsavlov;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class CrawlPipelineTest
+{
+    private static final int PAGES = 20;
+
+    private HttpServer server;
+    private String base;
+    private CorpusLog savedLog;
+    private UrlTable savedUrls;
+    private CorpusIndex savedIndex;
+    private CrawlPipeline savedPipeline;
+    private CrawlScheduler savedScheduler;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        // Crawled pages are logged; keep them out of the working directory's log
+        savedLog = Main.corpusLog;
+        File logFile = File.createTempFile("crawl", ".log");
+        logFile.delete();
+        Main.corpusLog = new CorpusLog(logFile);
+
+        // A crawl of its own, so no test sees what another one crawled
+        savedUrls = Main.urlHashTable;
+        savedIndex = Main.corpusIndex;
+        savedPipeline = Main.crawlPipeline;
+        savedScheduler = Main.crawlScheduler;
+        Main.urlHashTable = new UrlTable();
+        Main.corpusIndex = new CorpusIndex();
+        Main.crawlPipeline = new CrawlPipeline(8, 2);
+        Main.crawlScheduler = Main.newCrawlScheduler();
+
+        // Page 0 links to every other page, and each of those links back to page 0
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/wiki/", exchange -> {
+            int n = Integer.parseInt(exchange.getRequestURI().getPath().substring("/wiki/Page_".length()));
+            StringBuilder html = new StringBuilder("<html><body><p>page number ").append(n).append(" of the crawl</p>");
+            if (n == 0) {
+                for (int i = 1; i < PAGES; i++) {
+                    html.append("<a href=\"/wiki/Page_").append(i).append("\">page</a>");
+                }
+            } else {
+                html.append("<a href=\"/wiki/Page_0#top\">home</a>");
+            }
+            byte[] bytes = html.append("</body></html>").toString().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/html; charset=UTF-8");
+            exchange.getResponseHeaders().set("Last-Modified", "Sun, 18 Oct 2015 00:00:00 GMT");
+            exchange.sendResponseHeaders(200, bytes.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        });
+        server.start();
+        base = "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        server.stop(0);
+        Main.crawlScheduler.shutdown();
+        Main.crawlPipeline.shutdown();
+        Main.corpusLog.clear();
+
+        Main.corpusLog = savedLog;
+        Main.urlHashTable = savedUrls;
+        Main.corpusIndex = savedIndex;
+        Main.crawlPipeline = savedPipeline;
+        Main.crawlScheduler = savedScheduler;
+    }
+
+    @Test
+    public void testEveryPageGoesThroughEveryStage() throws Exception
+    {
+        assertTrue(new PageDownloader(new WebPage(base + "/wiki/Page_0")).enqueueAndWait());
+        assertTrue(Main.crawlScheduler.awaitCompletion(30, TimeUnit.SECONDS));
+
+        // Each page once, however many times it is linked to
+        assertEquals(PAGES, Main.corpusIndex.size());
+        assertEquals(PAGES, Main.crawlPipeline.getIndexMetrics().getCompletedCount());
+        assertEquals(0, Main.crawlPipeline.getFetchingCount());
+        assertEquals(0, Main.crawlPipeline.getParseMetrics().getQueueDepth());
+        assertEquals(0, Main.crawlPipeline.getIndexMetrics().getQueueDepth());
+        assertEquals(UrlTable.State.DONE, Main.urlHashTable.stateOf(base + "/wiki/Page_7"));
+        assertEquals(PAGES, Main.corpusLog.read().size());
+    }
+
+    @Test
+    public void testQueryPageLinksAreNotCrawled() throws Exception
+    {
+        final List<WebPage> delivered = new ArrayList<>();
+
+        new PageDownloader(new WebPage(base + "/wiki/Page_0"), new DownloadActionListener()
+        {
+            @Override
+            public void finishedDownloadingContent(WebPage page)
+            {
+                delivered.add(page);
+            }
+
+            @Override
+            public void updatedSimilarityResults(List<CosineSimilarityCalculation.CosineSimilarityResult> bestSoFar)
+            {
+            }
+
+            @Override
+            public void finishedCalculatingSimilarity(List<CosineSimilarityCalculation.CosineSimilarityResult> topResults)
+            {
+            }
+        }).run();
+
+        // The page comes back with its links, but none of them join the crawl
+        assertEquals(1, delivered.size());
+        assertEquals(PAGES - 1, delivered.get(0).getListOfLinks().size());
+        assertEquals(0, Main.crawlScheduler.getAdmittedCount());
+        assertEquals(0, Main.urlHashTable.size());
+        assertEquals(0, Main.corpusIndex.size());
+        assertTrue(Main.corpusLog.read().isEmpty());
+    }
+}
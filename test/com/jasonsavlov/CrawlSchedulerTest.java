@@ -0,0 +1,92 @@
+package com.jasonsavlov;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class CrawlSchedulerTest
+{
+    // Page i of a binary tree of pages links to pages 2i + 1 and 2i + 2
+    private static String url(String host, int i)
+    {
+        return "https://" + host + "/wiki/Page_" + i;
+    }
+
+    private static final class TreeCrawl
+    {
+        final CrawlScheduler scheduler;
+        final List<Integer> fetchedDepths = Collections.synchronizedList(new ArrayList<>());
+        final List<Integer> frontierDepths = Collections.synchronizedList(new ArrayList<>());
+
+        TreeCrawl(int maxDepth, int maxPages, int maxPerHost, int capacity, int workers)
+        {
+            scheduler = new CrawlScheduler(new UrlTable(), maxDepth, maxPages, maxPerHost,
+                    capacity, workers, new JSThreadFactory("crawlTest"));
+        }
+
+        Runnable page(String host, int i, int depth)
+        {
+            return () -> {
+                fetchedDepths.add(depth);
+                for (int child = 2 * i + 1; child <= 2 * i + 2; child++) {
+                    scheduler.offer(url(host, child), depth + 1, page(host, child, depth + 1));
+                }
+                frontierDepths.add(scheduler.getFrontierDepth());
+            };
+        }
+
+        void crawl(String... hosts) throws InterruptedException
+        {
+            for (String host : hosts) {
+                scheduler.put(url(host, 0), 0, page(host, 0, 0));
+            }
+            scheduler.awaitCompletion();
+            scheduler.shutdown();
+        }
+    }
+
+    @Test
+    public void testDepthLimitEndsTheCrawl() throws Exception
+    {
+        TreeCrawl crawl = new TreeCrawl(4, 1000, 1000, 1000, 4);
+        crawl.crawl("en.wikipedia.org");
+
+        // Depths 0 through 4 of a binary tree
+        assertEquals(31, crawl.fetchedDepths.size());
+        assertEquals(31, crawl.scheduler.getAdmittedCount());
+    }
+
+    @Test
+    public void testPageAndHostCaps() throws Exception
+    {
+        TreeCrawl pageCapped = new TreeCrawl(20, 50, 1000, 1000, 4);
+        pageCapped.crawl("en.wikipedia.org");
+        assertEquals(50, pageCapped.fetchedDepths.size());
+
+        TreeCrawl hostCapped = new TreeCrawl(20, 1000, 10, 1000, 4);
+        hostCapped.crawl("en.wikipedia.org", "de.wikipedia.org");
+        assertEquals(20, hostCapped.fetchedDepths.size());
+    }
+
+    @Test
+    public void testNearestPagesFirstInABoundedFrontier() throws Exception
+    {
+        // One thread, so pages are fetched in exactly the order the frontier hands them out
+        TreeCrawl crawl = new TreeCrawl(8, 1000, 1000, 8, 1);
+        crawl.crawl("en.wikipedia.org");
+
+        List<Integer> depths = crawl.fetchedDepths;
+        for (int i = 1; i < depths.size(); i++) {
+            assertTrue(depths.get(i - 1) <= depths.get(i));
+        }
+        assertTrue(crawl.scheduler.getDroppedCount() > 0);
+
+        // The frontier fills up to its capacity and is empty once the crawl is over
+        assertEquals(8, (int) Collections.max(crawl.frontierDepths));
+        assertEquals(0, crawl.scheduler.getFrontierDepth());
+    }
+}
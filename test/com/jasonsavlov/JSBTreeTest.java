@@ -0,0 +1,148 @@
+package com.jasonsavlov;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+public class JSBTreeTest
+{
+    private static final int WORD_COUNT = 5000;
+
+    private static String word(int i)
+    {
+        return "w" + Integer.toString(i * 7919 % WORD_COUNT, 36);
+    }
+
+    @Test
+    public void testPutAndGetAcrossSplits() throws Exception
+    {
+        JSBTree tree = new JSBTree(JSBTree.MIN_ORDER);
+
+        for (int i = 0; i < WORD_COUNT; i++) {
+            tree.put(word(i), new WordNode(word(i), i));
+        }
+
+        assertEquals(WORD_COUNT, tree.size());
+        assertTrue(tree.height() > 1);
+        for (int i = 0; i < WORD_COUNT; i++) {
+            assertEquals(i, tree.get(word(i)).frequency);
+        }
+        assertNull(tree.get("missing"));
+    }
+
+    @Test
+    public void testTreeToListIsSorted() throws Exception
+    {
+        JSBTree tree = new JSBTree(8);
+
+        for (int i = 0; i < WORD_COUNT; i++) {
+            tree.add(word(i));
+        }
+
+        List<WordNode> list = tree.treeToList();
+        assertEquals(WORD_COUNT, list.size());
+        for (int i = 1; i < list.size(); i++) {
+            assertTrue(list.get(i - 1).value.compareTo(list.get(i).value) < 0);
+        }
+    }
+
+    @Test
+    public void testConcurrentAddKeepsEveryCount() throws Exception
+    {
+        final int threads = 8;
+        final int rounds = 4;
+        JSBTree tree = new JSBTree(16);
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Future<?>> futures = new ArrayList<>();
+
+        for (int t = 0; t < threads; t++) {
+            final int offset = t;
+            futures.add(pool.submit(() -> {
+                for (int r = 0; r < rounds; r++) {
+                    for (int i = 0; i < WORD_COUNT; i++) {
+                        tree.add(word((i + offset * 613) % WORD_COUNT));
+                    }
+                }
+            }));
+        }
+        for (Future<?> f : futures) {
+            f.get();
+        }
+        pool.shutdown();
+
+        assertEquals(WORD_COUNT, tree.size());
+        for (WordNode wn : tree.treeToList()) {
+            assertEquals(threads * rounds, wn.frequency);
+        }
+    }
+
+    @Test
+    public void testIncrementInsertsThenAccumulates() throws Exception
+    {
+        JSBTree tree = new JSBTree(JSBTree.MIN_ORDER);
+
+        for (int i = 0; i < WORD_COUNT; i++) {
+            assertEquals(3, tree.increment(word(i), 3));
+        }
+        for (int i = 0; i < WORD_COUNT; i++) {
+            assertEquals(5, tree.increment(word(i), 2));
+        }
+
+        assertEquals(WORD_COUNT, tree.size());
+        assertEquals(5, tree.get(word(42)).frequency);
+    }
+
+    @Test
+    public void testBulkLoadThenInsert() throws Exception
+    {
+        List<WordNode> sorted = new ArrayList<>();
+        for (int i = 0; i < WORD_COUNT; i++) {
+            sorted.add(new WordNode(String.format("k%05d", i), i));
+        }
+
+        JSBTree tree = JSBTree.bulkLoad(sorted.iterator(), 8);
+        assertEquals(WORD_COUNT, tree.size());
+        assertEquals(sorted, tree.treeToList());
+        assertEquals(1234, tree.get("k01234").frequency);
+
+        // Packed leaves have to split on the very next insert
+        tree.add("k01234a");
+        tree.add("k01234");
+        assertEquals(WORD_COUNT + 1, tree.size());
+        assertEquals(1235, tree.get("k01234").frequency);
+        assertEquals(1, tree.get("k01234a").frequency);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBulkLoadRejectsUnsortedInput() throws Exception
+    {
+        List<WordNode> nodes = new ArrayList<>();
+        nodes.add(new WordNode("b"));
+        nodes.add(new WordNode("a"));
+        JSBTree.bulkLoad(nodes.iterator());
+    }
+
+    @Test
+    public void testSerializedTreeLoadsBack() throws Exception
+    {
+        JSBTree tree = new JSBTree();
+        for (int i = 0; i < WORD_COUNT; i++) {
+            tree.increment(word(i), i + 1);
+        }
+
+        JSBTree loaded = JSBTree.getTreeFromData(tree.serializeTree().toByteArray());
+        assertEquals(tree.treeToList(), loaded.treeToList());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectsTinyOrder() throws Exception
+    {
+        new JSBTree(2);
+    }
+}
@@ -0,0 +1,159 @@
+package com.jasonsavlov;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class PageFetcherTest
+{
+    private HttpServer server;
+    private ExecutorService serverThreads;
+    private String base;
+
+    private final AtomicInteger in_flight = new AtomicInteger();
+    private final AtomicInteger max_in_flight = new AtomicInteger();
+    private final Set<Integer> clientPorts = ConcurrentHashMap.newKeySet();
+
+    @Before
+    public void setUp() throws Exception
+    {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/page", exchange -> respond(exchange, 200,
+                "<html><body>caf\u00e9 au lait</body></html>"));
+        server.createContext("/slow", exchange -> {
+            int now = in_flight.incrementAndGet();
+            max_in_flight.accumulateAndGet(now, Math::max);
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            in_flight.decrementAndGet();
+            respond(exchange, 200, "<html></html>");
+        });
+        server.createContext("/missing", exchange -> respond(exchange, 404, "gone"));
+        server.createContext("/tagged", exchange -> {
+            exchange.getResponseHeaders().set("ETag", "\"v2\"");
+            if ("\"v2\"".equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                exchange.sendResponseHeaders(304, -1);
+                exchange.close();
+            } else {
+                respond(exchange, 200, "<html><body>second version</body></html>");
+            }
+        });
+
+        serverThreads = Executors.newFixedThreadPool(16);
+        server.setExecutor(serverThreads);
+        server.start();
+        base = "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        server.stop(0);
+        serverThreads.shutdownNow();
+    }
+
+    private void respond(HttpExchange exchange, int status, String body) throws IOException
+    {
+        clientPorts.add(exchange.getRemoteAddress().getPort());
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/html; charset=UTF-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private int fetchAll(PageFetcher fetcher, String url, int count, int threads) throws Exception
+    {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Future<Integer>> futures = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            futures.add(pool.submit(() -> fetcher.fetch(url).status));
+        }
+        int ok = 0;
+        for (Future<Integer> f : futures) {
+            if (f.get() == 200)
+                ok++;
+        }
+        pool.shutdown();
+        return ok;
+    }
+
+    @Test
+    public void testFetchReturnsStatusAndBody() throws Exception
+    {
+        PageFetcher fetcher = new PageFetcher(2, 1000, Duration.ofSeconds(5));
+
+        PageFetcher.Response page = fetcher.fetch(base + "/page");
+        assertEquals(200, page.status);
+        assertTrue(page.isHtml());
+        assertEquals("UTF-8", page.charset());
+        assertEquals("<html><body>caf\u00e9 au lait</body></html>", new String(page.body, StandardCharsets.UTF_8));
+
+        assertEquals(404, fetcher.fetch(base + "/missing").status);
+    }
+
+    @Test
+    public void testConnectionsPerHostAreCapped() throws Exception
+    {
+        PageFetcher fetcher = new PageFetcher(2, 1000, Duration.ofSeconds(5));
+        assertEquals(12, fetchAll(fetcher, base + "/slow", 12, 8));
+        assertEquals(2, max_in_flight.get());
+    }
+
+    @Test
+    public void testRequestRateIsLimited() throws Exception
+    {
+        // Ten requests at 20 a second can't finish in less than nine intervals of 50ms
+        PageFetcher fetcher = new PageFetcher(4, 20, Duration.ofSeconds(5));
+        long start = System.nanoTime();
+        assertEquals(10, fetchAll(fetcher, base + "/page", 10, 4));
+        assertTrue(System.nanoTime() - start >= Duration.ofMillis(450).toNanos());
+    }
+
+    @Test
+    public void testConnectionsAreReused() throws Exception
+    {
+        PageFetcher fetcher = new PageFetcher(1, 1000, Duration.ofSeconds(5));
+        for (int i = 0; i < 10; i++) {
+            assertEquals(200, fetcher.fetch(base + "/page").status);
+        }
+        assertEquals(1, clientPorts.size());
+    }
+
+    @Test
+    public void testConditionalFetch() throws Exception
+    {
+        PageFetcher fetcher = new PageFetcher(1, 1000, Duration.ofSeconds(5));
+
+        PageFetcher.Response changed = fetcher.fetchIfChanged(base + "/tagged", 1445212800000L, "\"v1\"");
+        assertEquals(200, changed.status);
+        assertEquals("\"v2\"", changed.header("ETag"));
+
+        PageFetcher.Response unchanged = fetcher.fetchIfChanged(base + "/tagged", 1445212800000L, "\"v2\"");
+        assertTrue(unchanged.isNotModified());
+        assertEquals(0, unchanged.body.length);
+    }
+}
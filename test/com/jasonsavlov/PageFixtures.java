@@ -0,0 +1,36 @@
+package com.jasonsavlov;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Pages for the corpus tests, built from text the way downloaded pages are.
+ */
+final class PageFixtures
+{
+    private PageFixtures()
+    {
+    }
+
+    // A page whose terms are the body's, counted into Main.termDictionary
+    static WebPage page(String url, String body)
+    {
+        WebPage page = new WebPage(url);
+        new Tokenizer().countTerms(body, Main.termDictionary, page.getTermFrequencies());
+        page.buildTermVector();
+        return page;
+    }
+
+    // Page_0 to Page_49: "tree node page", then worda to wordg twice by i % 7, and terma to termc by i % 3
+    static List<WebPage> corpus()
+    {
+        List<WebPage> pages = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            char word = (char) ('a' + i % 7);
+            char term = (char) ('a' + i % 3);
+            pages.add(page("https://en.wikipedia.org/wiki/Page_" + i,
+                    "tree node page word" + word + " word" + word + " term" + term));
+        }
+        return pages;
+    }
+}
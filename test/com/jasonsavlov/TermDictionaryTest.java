@@ -0,0 +1,70 @@
+package com.jasonsavlov;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+public class TermDictionaryTest
+{
+    @Test
+    public void testIdsAreDenseAndStable() throws Exception
+    {
+        TermDictionary dictionary = new TermDictionary();
+
+        for (int i = 0; i < 10000; i++) {
+            assertEquals(i, dictionary.idOf("term" + i));
+        }
+        for (int i = 0; i < 10000; i++) {
+            assertEquals(i, dictionary.idOf(new StringBuilder("term").append(i)));
+            assertEquals("term" + i, dictionary.termOf(i));
+        }
+        assertEquals(10000, dictionary.size());
+        assertEquals(-1, dictionary.lookup("absent"));
+    }
+
+    @Test
+    public void testConcurrentThreadsAgreeOnIds() throws Exception
+    {
+        final TermDictionary dictionary = new TermDictionary();
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        List<Future<int[]>> futures = new ArrayList<>();
+
+        for (int t = 0; t < 8; t++) {
+            futures.add(pool.submit(() -> {
+                int[] ids = new int[5000];
+                for (int i = 0; i < ids.length; i++) {
+                    ids[i] = dictionary.idOf("w" + i);
+                }
+                return ids;
+            }));
+        }
+
+        int[] first = futures.get(0).get();
+        for (Future<int[]> f : futures) {
+            assertArrayEquals(first, f.get());
+        }
+        pool.shutdown();
+        assertEquals(5000, dictionary.size());
+    }
+
+    @Test
+    public void testFrequencyMapIncrements() throws Exception
+    {
+        TermFrequencyMap map = new TermFrequencyMap(2);
+
+        for (int i = 0; i < 1000; i++) {
+            map.increment(i * 31, 1);
+            map.increment(i * 31, 2);
+        }
+
+        assertEquals(1000, map.size());
+        assertEquals(3, map.get(31 * 500));
+        assertEquals(0, map.get(1));
+    }
+}
@@ -0,0 +1,62 @@
+package com.jasonsavlov;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TermVectorTest
+{
+    @Test
+    public void testDisjointVectorsAreOrthogonal() throws Exception
+    {
+        TermVector a = TermVector.of(new int[]{1, 3, 5}, new int[]{2, 4, 6});
+        TermVector b = TermVector.of(new int[]{6, 4, 2, 0}, new int[]{1, 1, 1, 1});
+
+        assertEquals(0L, a.dot(b));
+        assertEquals(0.0, a.cosine(b), 0.0);
+    }
+
+    @Test
+    public void testIdenticalVectorsHaveCosineOne() throws Exception
+    {
+        TermVector a = TermVector.of(new int[]{9, 2, 40}, new int[]{3, 1, 7});
+        TermVector b = TermVector.of(new int[]{40, 9, 2}, new int[]{7, 3, 1});
+
+        assertEquals(a.norm(), b.norm(), 0.0);
+        assertEquals(59L, a.dot(b));
+        assertEquals(1.0, a.cosine(b), 1e-12);
+    }
+
+    @Test
+    public void testEmptyVectorHasCosineZero() throws Exception
+    {
+        TermVector a = TermVector.of(new int[]{1, 2}, new int[]{5, 5});
+        TermVector empty = TermVector.of(new int[0], new int[0]);
+
+        assertSame(TermVector.EMPTY, empty);
+        assertEquals(0.0, empty.norm(), 0.0);
+        assertEquals(0L, a.dot(empty));
+        assertEquals(0.0, a.cosine(empty), 0.0);
+        assertEquals(0.0, empty.cosine(a), 0.0);
+        assertEquals(0.0, empty.cosine(empty), 0.0);
+    }
+
+    @Test
+    public void testDotMergesOverlappingTerms() throws Exception
+    {
+        // Shared terms are 3 (2 * 4), 7 (5 * 1) and 100 (1 * 3); the rest only appear once
+        TermVector a = TermVector.of(new int[]{100, 7, 3, 1}, new int[]{1, 5, 2, 9});
+        TermVector b = TermVector.of(new int[]{3, 4, 7, 100, 200}, new int[]{4, 8, 1, 3, 2});
+
+        assertEquals(16L, a.dot(b));
+        assertEquals(16L, b.dot(a));
+        assertEquals(Math.sqrt(111), a.norm(), 1e-12);
+        assertEquals(Math.sqrt(94), b.norm(), 1e-12);
+        assertEquals(16 / (Math.sqrt(111) * Math.sqrt(94)), a.cosine(b), 1e-12);
+
+        assertEquals(1, a.termIdAt(0));
+        assertEquals(9, a.countAt(0));
+        assertEquals(5, a.countOf(7));
+        assertEquals(0, a.countOf(4));
+    }
+}
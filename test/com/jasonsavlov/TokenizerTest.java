@@ -0,0 +1,69 @@
+package com.jasonsavlov;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TokenizerTest
+{
+    private static List<String> terms(String body)
+    {
+        List<String> terms = new ArrayList<>();
+        new Tokenizer().tokenize(body, term -> terms.add(term.toString()));
+        return terms;
+    }
+
+    @Test
+    public void testBodiesWithoutLettersHaveNoTerms() throws Exception
+    {
+        assertTrue(terms("").isEmpty());
+        assertTrue(terms(" \t\n\r ").isEmpty());
+        assertTrue(terms("... !? -- (,) ;:").isEmpty());
+        assertTrue(terms("1 23 456.78 2015-10-18").isEmpty());
+    }
+
+    @Test
+    public void testTermsAreLowercased() throws Exception
+    {
+        assertEquals(Arrays.asList("tree", "tree", "btree", "zz"), terms("Tree TREE bTrEe ZZ"));
+    }
+
+    @Test
+    public void testWhitespaceSplitsAndOtherCharactersAreDropped() throws Exception
+    {
+        // Like the old split("\\s+") then replaceAll("[^a-zA-Z]", "")
+        assertEquals(Arrays.asList("dont", "cole", "top", "csc", "page"),
+                terms("  don't \u00e9cole\ttop-10\ncsc365 \"page.\"  "));
+        assertEquals(Arrays.asList("a", "b", "c", "d"), terms("a\fb\u000Bc\r\nd"));
+    }
+
+    @Test
+    public void testCountTermsAddsToFrequencies() throws Exception
+    {
+        TermDictionary dictionary = new TermDictionary();
+        TermFrequencyMap frequencies = new TermFrequencyMap(4);
+        Tokenizer tokenizer = new Tokenizer();
+
+        tokenizer.countTerms("node Node 42 leaf", dictionary, frequencies);
+        tokenizer.countTerms("NODE!", dictionary, frequencies);
+
+        assertEquals(2, frequencies.size());
+        assertEquals(3, frequencies.get(dictionary.lookup("node")));
+        assertEquals(1, frequencies.get(dictionary.lookup("leaf")));
+        assertEquals(-1, dictionary.lookup("42"));
+    }
+
+    @Test
+    public void testLongTermsGrowTheBuffer() throws Exception
+    {
+        char[] letters = new char[1000];
+        Arrays.fill(letters, 'Q');
+        String longWord = new String(letters);
+
+        assertEquals(Arrays.asList(longWord.toLowerCase(), "short"), terms(longWord + " short"));
+    }
+}
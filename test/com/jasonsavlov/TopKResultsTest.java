@@ -0,0 +1,42 @@
+package com.jasonsavlov;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TopKResultsTest
+{
+    private static CosineSimilarityCalculation.CosineSimilarityResult result(String page, double similarity)
+    {
+        return new CosineSimilarityCalculation.CosineSimilarityResult(page, similarity);
+    }
+
+    @Test
+    public void testKeepsTheMostSimilarK() throws Exception
+    {
+        TopKResults top = new TopKResults(3);
+        assertTrue(top.offer(result("a", 0.5)));
+        assertTrue(top.offer(result("b", 0.2)));
+        assertTrue(top.offer(result("c", 0.7)));
+
+        // Full: only results better than the weakest get in, and the weakest goes
+        assertFalse(top.offer(result("d", 0.1)));
+        assertFalse(top.offer(result("e", 0.2)));
+        assertTrue(top.offer(result("f", 0.9)));
+        assertTrue(top.offer(result("g", 0.6)));
+
+        List<CosineSimilarityCalculation.CosineSimilarityResult> snapshot = top.snapshot();
+        assertEquals(3, snapshot.size());
+        assertEquals("f", snapshot.get(0).page);
+        assertEquals("c", snapshot.get(1).page);
+        assertEquals("g", snapshot.get(2).page);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testKMustBePositive() throws Exception
+    {
+        new TopKResults(0);
+    }
+}
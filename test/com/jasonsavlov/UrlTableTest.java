@@ -0,0 +1,117 @@
+package com.jasonsavlov;
+
+import org.junit.Test;
+
+import java.nio.LongBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+public class UrlTableTest
+{
+    private static final int THREADS = 16;
+    private static final int URLS = 50000;
+
+    private static String url(int i)
+    {
+        return "https://en.wikipedia.org/wiki/Page_" + i;
+    }
+
+    @Test
+    public void testEveryUrlIsClaimedExactlyOnce() throws Exception
+    {
+        final UrlTable table = new UrlTable(16);
+        final CountDownLatch start = new CountDownLatch(1);
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        List<Future<Integer>> futures = new ArrayList<>();
+
+        // Every thread races to add every URL, each starting at a different point
+        for (int t = 0; t < THREADS; t++) {
+            final int offset = t * (URLS / THREADS);
+            futures.add(pool.submit(() -> {
+                start.await();
+                int added = 0;
+                for (int i = 0; i < URLS; i++) {
+                    int n = (i + offset) % URLS;
+                    if (table.addIfAbsent(url(n)))
+                        added++;
+                    assertTrue(table.contains(url(n)));
+                }
+                return added;
+            }));
+        }
+        start.countDown();
+
+        int totalAdded = 0;
+        for (Future<Integer> f : futures) {
+            totalAdded += f.get();
+        }
+        pool.shutdown();
+
+        assertEquals(URLS, totalAdded);
+        assertEquals(URLS, table.size());
+        assertFalse(table.contains(url(URLS)));
+    }
+
+    @Test
+    public void testStatesMoveByCompareAndSet() throws Exception
+    {
+        UrlTable table = new UrlTable();
+        String url = url(1);
+
+        assertNull(table.stateOf(url));
+        assertFalse(table.transition(url, UrlTable.State.QUEUED, UrlTable.State.FETCHING));
+
+        assertTrue(table.addIfAbsent(url));
+        assertEquals(UrlTable.State.QUEUED, table.stateOf(url));
+        assertTrue(table.transition(url, UrlTable.State.QUEUED, UrlTable.State.FETCHING));
+        assertFalse(table.transition(url, UrlTable.State.QUEUED, UrlTable.State.FETCHING));
+        assertEquals(0, table.count(UrlTable.State.DONE));
+
+        assertTrue(table.transition(url, UrlTable.State.FETCHING, UrlTable.State.DONE));
+        assertEquals(1, table.count(UrlTable.State.DONE));
+    }
+
+    @Test
+    public void testSavingKeepsFinishedEntries() throws Exception
+    {
+        UrlTable table = new UrlTable();
+        for (int i = 0; i < 1000; i++) {
+            table.addIfAbsent(url(i));
+            table.transition(url(i), UrlTable.State.QUEUED, UrlTable.State.DONE);
+        }
+        table.addIfAbsent(url(1000));
+
+        long[] fingerprints = table.finishedFingerprints();
+        assertEquals(1000, fingerprints.length);
+        UrlTable loaded = UrlTable.ofFinished(LongBuffer.wrap(fingerprints));
+
+        // Pages that never finished aren't saved
+        assertEquals(1000, loaded.size());
+        assertEquals(UrlTable.State.DONE, loaded.stateOf(url(999)));
+        assertFalse(loaded.contains(url(1000)));
+    }
+
+    @Test
+    public void testCanonicalFormsShareAnEntry() throws Exception
+    {
+        assertEquals("https://en.wikipedia.org/wiki/B-tree",
+                UrlCanonicalizer.canonicalize("HTTPS://En.Wikipedia.ORG:443/wiki/B-tree#History"));
+        assertEquals("http://example.com/",
+                UrlCanonicalizer.canonicalize("http://Example.com:80"));
+        assertEquals("http://example.com:8080/search?a=1&b=2",
+                UrlCanonicalizer.canonicalize("http://example.com:8080/search?b=2&a=1"));
+
+        UrlTable table = new UrlTable();
+        assertTrue(table.addIfAbsent("https://en.wikipedia.org/wiki/B-tree"));
+        assertFalse(table.addIfAbsent("https://EN.wikipedia.org/wiki/B-tree#See_also"));
+        assertFalse(table.addIfAbsent("https://en.wikipedia.org:443/wiki/B-tree"));
+        assertTrue(table.addIfAbsent("https://en.wikipedia.org/wiki/B+tree"));
+        assertEquals(2, table.size());
+    }
+}